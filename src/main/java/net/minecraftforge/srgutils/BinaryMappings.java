@@ -0,0 +1,514 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.minecraftforge.srgutils.IMappingVisitor.Element;
+import org.jetbrains.annotations.Nullable;
+
+/*
+ * The BINARY format, a compact encoding of every column of a mapping file that is quicker to read and write than the text formats.
+ * It can be read straight out of a memory mapped file, and when opened with LoadOptions.lazy() only the classes that are looked up are decoded.
+ *
+ * It starts with the magic bytes, which no text format can start with, and a version byte.
+ * Then every string in the file is stored once in a table: the number of strings, the offset of each from the start of the string data,
+ * and the string data, which is the length in bytes of each string followed by its UTF-8 encoding.
+ * Everything after the table refers to strings by their index in it, offsets are from the start of the file.
+ * Offsets and counts outside of the records are 4 byte big endian ints, everything else is an unsigned LEB128 varint.
+ * Parameter indexes can be negative, so they are zigzag encoded first: 0, -1, 1, -2... are written as 0, 1, 2, 3...
+ *
+ * The header is the number of columns followed by their names, then there is a record for every element, starting with its tag:
+ *   PACKAGE   names
+ *   CLASS     names
+ *   FIELD     descriptor + 1, or 0 if it has none, names
+ *   METHOD    descriptor, names
+ *   PARAMETER index, names
+ *   META      element, key, value
+ * Metadata follows the element it belongs to. The packages come first, then each class followed by its members, and the records end with END.
+ *
+ * After the records is the class directory, sorted by the first name of each class, every entry being its name and the [start, end) of its records.
+ * The file ends with the offset of the first class, the offset of the directory, and the number of entries in it.
+ */
+class BinaryMappings {
+    static final byte[] MAGIC = { 0, 'S', 'R', 'G' };
+    private static final byte VERSION = 1;
+    private static final int TRAILER = 12;
+    private static final int ENTRY = 12;
+
+    private static final int END       = 0;
+    private static final int PACKAGE   = 1;
+    private static final int CLASS     = 2;
+    private static final int FIELD     = 3;
+    private static final int METHOD    = 4;
+    private static final int PARAMETER = 5;
+    private static final int META      = 6;
+
+    private static final Element[] ELEMENTS = Element.values();
+
+    /*
+     * Reads the header, everything else is only read when it's asked for.
+     * The buffer has to hold the whole file, starting at the magic.
+     */
+    static Reader open(ByteBuffer buf) throws IOException {
+        try {
+            for (int x = 0; x < MAGIC.length; x++) {
+                if (buf.get(x) != MAGIC[x])
+                    throw new IOException("Invalid binary mapping file, missing magic");
+            }
+
+            int version = buf.get(MAGIC.length);
+            if (version != VERSION)
+                throw new IOException("Unsupported binary mapping version: " + version);
+
+            return new Reader(buf);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Invalid binary mapping file, unexpected end of data", e);
+        }
+    }
+
+    static class Reader {
+        private final ByteBuffer buf;
+        private final int count;       // Number of strings
+        private final int offsets;     // Offset of the string offsets
+        private final int data;        // Offset of the string data
+        private final String[] names;
+        private final int records;     // Offset of the first record, after the header
+        private final int classes;     // Offset of the first class record
+        private final int directory;   // Offset of the class directory
+        private final int entries;     // Number of entries in the class directory
+        @Nullable
+        private String[] strings;      // Strings that have been decoded, only kept while reading everything
+        private byte[] tmp = new byte[64];
+        private int pos;
+
+        private Reader(ByteBuffer buf) throws IOException {
+            this.buf = buf;
+            this.count = buf.getInt(MAGIC.length + 1);
+            this.offsets = MAGIC.length + 5;
+            this.data = this.offsets + this.count * 4;
+            if (this.count < 0 || this.data < 0 || this.data > buf.limit())
+                throw new IOException("Invalid binary mapping file, string table out of bounds");
+
+            int end = buf.limit() - TRAILER;
+            this.classes = buf.getInt(end);
+            this.directory = buf.getInt(end + 4);
+            this.entries = buf.getInt(end + 8);
+            if (this.classes < this.data || this.directory < this.classes || this.entries < 0 || this.directory + (long)this.entries * ENTRY != end)
+                throw new IOException("Invalid binary mapping file, class directory out of bounds");
+
+            // The header is right after the string data, which ends with the last string
+            this.pos = this.data;
+            if (this.count != 0) {
+                this.pos += buf.getInt(this.offsets + (this.count - 1) * 4);
+                int length = varint();
+                this.pos += length;
+            }
+            int columns = varint();
+            if (columns < 2)
+                throw new IOException("Invalid binary mapping file, expected at least two names got " + columns);
+            this.names = new String[columns];
+            for (int x = 0; x < columns; x++)
+                this.names[x] = string();
+            this.records = this.pos;
+        }
+
+        String[] getNames() {
+            return this.names;
+        }
+
+        /*
+         * Visits every record, without calling visitHeader or visitEnd.
+         */
+        void read(IMappingVisitor visitor) throws IOException {
+            this.strings = new String[this.count];
+            try {
+                read(visitor, this.records, this.directory);
+            } finally {
+                this.strings = null;
+            }
+        }
+
+        /*
+         * Reads the packages into the owner now, and indexes the classes to be read when they are looked up.
+         */
+        ClassIndex index(NamedMappingFile owner) throws IOException {
+            MappingChunk chunk = new MappingChunk(owner);
+            read(chunk, this.records, this.classes);
+            MappingChunk.merge(owner, Collections.singletonList(chunk), null);
+            return new Index(owner);
+        }
+
+        private void read(IMappingVisitor visitor, int start, int end) throws IOException {
+            try {
+                this.pos = start;
+                while (this.pos < end) {
+                    int tag = varint();
+                    switch (tag) {
+                        case END:       return;
+                        case PACKAGE:   visitor.visitPackage(names()); break;
+                        case CLASS:     visitor.visitClass(names()); break;
+                        case FIELD:     visitor.visitField(nullable(), names()); break;
+                        case METHOD:    visitor.visitMethod(string(), names()); break;
+                        case PARAMETER: visitor.visitParameter(signedVarint(), names()); break;
+                        case META:
+                            int element = varint();
+                            if (element >= ELEMENTS.length)
+                                throw new IOException("Invalid binary mapping file, unknown element " + element + " at " + this.pos);
+                            visitor.visitMeta(ELEMENTS[element], string(), string());
+                            break;
+                        default: throw new IOException("Invalid binary mapping file, unknown record " + tag + " at " + this.pos);
+                    }
+                }
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Invalid binary mapping file, unexpected end of data", e);
+            }
+        }
+
+        private int varint() throws IOException {
+            int ret = rawVarint();
+            if (ret < 0)
+                throw new IOException("Invalid binary mapping file, malformed varint at " + this.pos);
+            return ret;
+        }
+
+        private int signedVarint() throws IOException {
+            int ret = rawVarint();
+            return (ret >>> 1) ^ -(ret & 1);
+        }
+
+        // All 32 bits, lengths and indexes check the sign themselves
+        private int rawVarint() throws IOException {
+            int ret = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = this.buf.get(this.pos++);
+                ret |= (b & 0x7F) << shift;
+                if (b >= 0)
+                    return ret;
+            }
+            throw new IOException("Invalid binary mapping file, malformed varint at " + this.pos);
+        }
+
+        // A new array every time, it's handed to the visitor, which can keep it
+        private String[] names() throws IOException {
+            String[] ret = new String[this.names.length];
+            for (int x = 0; x < ret.length; x++)
+                ret[x] = string();
+            return ret;
+        }
+
+        private String string() throws IOException {
+            return string(varint());
+        }
+
+        @Nullable
+        private String nullable() throws IOException {
+            int idx = varint();
+            return idx == 0 ? null : string(idx - 1);
+        }
+
+        private String string(int idx) throws IOException {
+            if (idx >= this.count)
+                throw new IOException("Invalid binary mapping file, unknown string " + idx + " at " + this.pos);
+
+            String[] strings = this.strings;
+            String ret = strings == null ? null : strings[idx];
+            if (ret == null) {
+                ret = decode(idx);
+                if (strings != null)
+                    strings[idx] = ret;
+            }
+            return ret;
+        }
+
+        private String decode(int idx) throws IOException {
+            int saved = this.pos;
+            this.pos = this.data + this.buf.getInt(this.offsets + idx * 4);
+            int length = varint();
+            if (length > this.tmp.length)
+                this.tmp = new byte[Math.max(length, this.tmp.length * 2)];
+            for (int x = 0; x < length; x++)
+                this.tmp[x] = this.buf.get(this.pos + x);
+            this.pos = saved;
+            return new String(this.tmp, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /*
+         * Reads classes straight out of the buffer the first time they are looked up, using the directory to find them.
+         * Reading moves the reader's position, so it's done while holding the lock.
+         */
+        private class Index implements ClassIndex {
+            private final NamedMappingFile owner;
+            private final BitSet loaded = new BitSet(Reader.this.entries);
+
+            private Index(NamedMappingFile owner) {
+                this.owner = owner;
+            }
+
+            @Override
+            public synchronized boolean isEmpty() {
+                return this.loaded.cardinality() == Reader.this.entries;
+            }
+
+            @Override
+            public synchronized void load(String name) {
+                try {
+                    int first = find(name);
+                    if (first == -1)
+                        return;
+
+                    // A class visited more than once has an entry for each time, next to each other in file order
+                    MappingChunk chunk = new MappingChunk(this.owner);
+                    for (int x = first; x < Reader.this.entries && name.equals(name(x)); x++)
+                        read(chunk, x);
+                    MappingChunk.merge(this.owner, Collections.singletonList(chunk), null);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public synchronized void loadAll() {
+                if (isEmpty())
+                    return;
+
+                try {
+                    MappingChunk chunk = new MappingChunk(this.owner);
+                    for (int x = 0; x < Reader.this.entries; x++)
+                        read(chunk, x);
+                    MappingChunk.merge(this.owner, Collections.singletonList(chunk), null);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            private void read(MappingChunk chunk, int entry) throws IOException {
+                if (this.loaded.get(entry))
+                    return;
+                int offset = Reader.this.directory + entry * ENTRY;
+                Reader.this.read(chunk, Reader.this.buf.getInt(offset + 4), Reader.this.buf.getInt(offset + 8));
+                this.loaded.set(entry);
+            }
+
+            // The first entry with the name, or -1
+            private int find(String name) throws IOException {
+                int ret = -1;
+                int low = 0;
+                int high = Reader.this.entries - 1;
+                while (low <= high) {
+                    int mid = (low + high) >>> 1;
+                    int cmp = name(mid).compareTo(name);
+                    if (cmp < 0)
+                        low = mid + 1;
+                    else {
+                        if (cmp == 0)
+                            ret = mid;
+                        high = mid - 1;
+                    }
+                }
+                return ret;
+            }
+
+            private String name(int entry) throws IOException {
+                return string(Reader.this.buf.getInt(Reader.this.directory + entry * ENTRY));
+            }
+        }
+    }
+
+    /*
+     * Encodes what it visits, once everything has been visited writeTo writes the file.
+     * Everything is kept in memory until then, as the string table has to come first.
+     */
+    static class Writer implements IMappingVisitor {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final Bytes offsets = new Bytes();
+        private final Bytes strings = new Bytes();
+        private final Bytes header = new Bytes();
+        private final Bytes packages = new Bytes();
+        private final Bytes classes = new Bytes();
+        private final List<Entry> entries = new ArrayList<>();
+        @Nullable
+        private Entry cls;
+        private int columns = -1;
+
+        @Override
+        public void visitHeader(String... names) {
+            this.columns = names.length;
+            this.header.varint(names.length);
+            names(this.header, names);
+        }
+
+        @Override
+        public void visitPackage(String... names) {
+            this.packages.varint(PACKAGE);
+            names(this.packages, names);
+        }
+
+        @Override
+        public void visitClass(String... names) {
+            endClass();
+            this.cls = new Entry(names[0], index(names[0]), this.classes.size);
+            this.classes.varint(CLASS);
+            names(this.classes, names);
+        }
+
+        @Override
+        public void visitField(@Nullable String desc, String... names) {
+            this.classes.varint(FIELD);
+            this.classes.varint(desc == null ? 0 : index(desc) + 1);
+            names(this.classes, names);
+        }
+
+        @Override
+        public void visitMethod(String desc, String... names) {
+            this.classes.varint(METHOD);
+            this.classes.varint(index(desc));
+            names(this.classes, names);
+        }
+
+        @Override
+        public void visitParameter(int index, String... names) {
+            this.classes.varint(PARAMETER);
+            this.classes.varint((index << 1) ^ (index >> 31));
+            names(this.classes, names);
+        }
+
+        @Override
+        public void visitMeta(Element element, String key, String value) {
+            Bytes out = element == Element.PACKAGE ? this.packages : this.classes;
+            out.varint(META);
+            out.varint(element.ordinal());
+            out.varint(index(key));
+            out.varint(index(value));
+        }
+
+        @Override
+        public void visitEnd() {
+            endClass();
+            this.classes.varint(END);
+        }
+
+        private void endClass() {
+            if (this.cls != null) {
+                this.cls.end = this.classes.size;
+                this.entries.add(this.cls);
+                this.cls = null;
+            }
+        }
+
+        private void names(Bytes out, String... names) {
+            if (names.length != this.columns)
+                throw new IllegalArgumentException("Invalid number of names, expected " + this.columns + " got " + names.length);
+            for (String name : names)
+                out.varint(index(name));
+        }
+
+        private int index(String value) {
+            Integer ret = this.indexes.get(value);
+            if (ret == null) {
+                ret = this.indexes.size();
+                this.indexes.put(value, ret);
+                this.offsets.writeInt(this.strings.size);
+                byte[] data = value.getBytes(StandardCharsets.UTF_8);
+                this.strings.varint(data.length);
+                this.strings.write(data, 0, data.length);
+            }
+            return ret;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            Bytes start = new Bytes();
+            start.write(MAGIC, 0, MAGIC.length);
+            start.write(new byte[] { VERSION }, 0, 1);
+            start.writeInt(this.indexes.size());
+
+            int classes = start.size + this.offsets.size + this.strings.size + this.header.size + this.packages.size;
+            int directory = classes + this.classes.size;
+
+            // Stable, so entries for the same class stay in file order
+            List<Entry> sorted = new ArrayList<>(this.entries);
+            sorted.sort(Comparator.comparing(e -> e.name));
+            Bytes end = new Bytes();
+            for (Entry entry : sorted) {
+                end.writeInt(entry.index);
+                end.writeInt(classes + entry.start);
+                end.writeInt(classes + entry.end);
+            }
+            end.writeInt(classes);
+            end.writeInt(directory);
+            end.writeInt(sorted.size());
+
+            start.writeTo(out);
+            this.offsets.writeTo(out);
+            this.strings.writeTo(out);
+            this.header.writeTo(out);
+            this.packages.writeTo(out);
+            this.classes.writeTo(out);
+            end.writeTo(out);
+        }
+
+        private static class Entry {
+            private final String name;
+            private final int index;
+            private final int start;
+            private int end;
+
+            private Entry(String name, int index, int start) {
+                this.name = name;
+                this.index = index;
+                this.start = start;
+            }
+        }
+    }
+
+    private static class Bytes {
+        private byte[] data = new byte[1 << 12];
+        private int size;
+
+        private void varint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                this.data[this.size++] = (byte)((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            this.data[this.size++] = (byte)value;
+        }
+
+        private void writeInt(int value) {
+            ensure(4);
+            this.data[this.size++] = (byte)(value >>> 24);
+            this.data[this.size++] = (byte)(value >>> 16);
+            this.data[this.size++] = (byte)(value >>> 8);
+            this.data[this.size++] = (byte)value;
+        }
+
+        private void write(byte[] value, int offset, int length) {
+            ensure(length);
+            System.arraycopy(value, offset, this.data, this.size, length);
+            this.size += length;
+        }
+
+        private void ensure(int length) {
+            if (this.size + length > this.data.length)
+                this.data = Arrays.copyOf(this.data, Math.max(this.size + length, this.data.length * 2));
+        }
+
+        private void writeTo(OutputStream out) throws IOException {
+            out.write(this.data, 0, this.size);
+        }
+    }
+}
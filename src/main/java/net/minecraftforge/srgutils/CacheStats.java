@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+/*
+ * A snapshot of a mapping file's remap cache, to help pick a size for IMappingFile.setRemapCacheSize.
+ */
+public final class CacheStats {
+    private final int capacity;
+    private final int size;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+
+    CacheStats(int capacity, int size, long hits, long misses, long evictions) {
+        this.capacity = capacity;
+        this.size = size;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+    }
+
+    /*
+     * The most entries the cache will hold, zero if it is unbounded.
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public int getSize() {
+        return this.size;
+    }
+
+    public long getHits() {
+        return this.hits;
+    }
+
+    public long getMisses() {
+        return this.misses;
+    }
+
+    public long getEvictions() {
+        return this.evictions;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats[capacity=" + capacity + ", size=" + size + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+}
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+/*
+ * The classes of a file opened with LoadOptions.lazy() that haven't been read yet, so each can be read the first time it is looked up.
+ * Classes are read into the owning file, and can be loaded from several threads at once.
+ */
+interface ClassIndex {
+    boolean isEmpty();
+
+    /*
+     * Reads the class into the owning file, if it hasn't been already.
+     */
+    void load(String name);
+
+    /*
+     * Reads every class that is left.
+     */
+    void loadAll();
+}
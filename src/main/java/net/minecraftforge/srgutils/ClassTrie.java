@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+import java.util.Arrays;
+
+/*
+ * Class and package names split into segments at every '/' and '$', so a name that isn't mapped itself can find what applies to it in one walk:
+ * the innermost mapped class it is nested in, or if there is none, the innermost mapped package it is in.
+ *
+ * Each segment keeps the separator in front of it, so "a/b" and "a$b" are different nodes, and a single segment obfuscated name like "a" can be both a class and a package.
+ * Nodes are found through one open addressing table keyed on the parent node and the segment's characters, which are compared in place, so a walk allocates nothing.
+ *
+ * Built once, then only read, so it can be shared between threads once published.
+ */
+class ClassTrie<T> {
+    private String[] names = new String[64]; // The prefix each node stands for, node 0 is the root and stands for nothing
+    private int[] parents = new int[64];
+    private Object[] classes = new Object[64];
+    private Object[] packages = new Object[64];
+    private int[] table = new int[128]; // Node, or 0 if the slot is empty, the root is never a child
+    private int size = 1;
+
+    ClassTrie() {
+        this.names[0] = "";
+    }
+
+    void putClass(String name, T value) {
+        int node = add(name); // Before reading the field, adding can grow the arrays
+        this.classes[node] = value;
+    }
+
+    /*
+     * The default package is skipped, it would move every class that isn't in a package.
+     */
+    void putPackage(String name, T value) {
+        if (!name.isEmpty() && !name.equals(".")) {
+            int node = add(name);
+            this.packages[node] = value;
+        }
+    }
+
+    /*
+     * The innermost mapped class that name is, or is nested in, followed by '$' or the end of the name.
+     * If there isn't one, the innermost mapped package followed by '/', negated so the two can be told apart.
+     * Returns 0 if neither applies, otherwise what replaces the first length(node) characters of name is get(node).
+     */
+    int find(String name) {
+        int found = 0;
+        int node = 0;
+        for (int start = 0; start < name.length(); ) {
+            int end = end(name, start);
+            node = child(node, name, start, end);
+            if (node == 0)
+                break;
+            char next = end == name.length() ? '$' : name.charAt(end);
+            if (next == '$' && this.classes[node] != null)
+                found = node;
+            else if (next == '/' && this.packages[node] != null && found <= 0)
+                found = -node;
+            start = end;
+        }
+        return found;
+    }
+
+    /*
+     * The innermost mapped package that name is, or is in.
+     */
+    int findPackage(String name) {
+        int found = 0;
+        int node = 0;
+        for (int start = 0; start < name.length(); ) {
+            int end = end(name, start);
+            node = child(node, name, start, end);
+            if (node == 0)
+                break;
+            if ((end == name.length() || name.charAt(end) == '/') && this.packages[node] != null)
+                found = -node;
+            start = end;
+        }
+        return found;
+    }
+
+    @SuppressWarnings("unchecked")
+    T get(int node) {
+        return (T)(node > 0 ? this.classes[node] : this.packages[-node]);
+    }
+
+    int length(int node) {
+        return this.names[Math.abs(node)].length();
+    }
+
+    // A segment runs up to the next separator, after the one it starts with
+    private static int end(String name, int start) {
+        for (int x = start + 1; x < name.length(); x++) {
+            char c = name.charAt(x);
+            if (c == '/' || c == '$')
+                return x;
+        }
+        return name.length();
+    }
+
+    private int add(String name) {
+        int node = 0;
+        for (int start = 0; start < name.length(); ) {
+            int end = end(name, start);
+            int child = child(node, name, start, end);
+            if (child == 0)
+                child = addChild(node, end == name.length() ? name : name.substring(0, end));
+            node = child;
+            start = end;
+        }
+        return node;
+    }
+
+    private int addChild(int parent, String name) {
+        if (this.size == this.names.length) {
+            int capacity = this.size * 2;
+            this.names = Arrays.copyOf(this.names, capacity);
+            this.parents = Arrays.copyOf(this.parents, capacity);
+            this.classes = Arrays.copyOf(this.classes, capacity);
+            this.packages = Arrays.copyOf(this.packages, capacity);
+            this.table = new int[capacity * 2];
+            for (int x = 1; x < this.size; x++)
+                insert(x);
+        }
+
+        int node = this.size++;
+        this.names[node] = name;
+        this.parents[node] = parent;
+        insert(node);
+        return node;
+    }
+
+    private void insert(int node) {
+        int parent = this.parents[node];
+        int mask = this.table.length - 1;
+        int slot = hash(parent, this.names[node], this.names[parent].length(), this.names[node].length()) & mask;
+        while (this.table[slot] != 0)
+            slot = (slot + 1) & mask;
+        this.table[slot] = node;
+    }
+
+    private int child(int parent, String name, int start, int end) {
+        int mask = this.table.length - 1;
+        for (int slot = hash(parent, name, start, end) & mask, node; (node = this.table[slot]) != 0; slot = (slot + 1) & mask) {
+            String candidate = this.names[node];
+            if (this.parents[node] == parent && candidate.length() == end && candidate.regionMatches(start, name, start, end - start))
+                return node;
+        }
+        return 0;
+    }
+
+    private static int hash(int parent, String name, int start, int end) {
+        int hash = parent;
+        for (int x = start; x < end; x++)
+            hash = hash * 31 + name.charAt(x);
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
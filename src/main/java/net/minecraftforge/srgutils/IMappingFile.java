@@ -10,10 +10,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.zip.GZIPInputStream;
 
 public interface IMappingFile {
@@ -29,6 +33,29 @@ public interface IMappingFile {
         return InternalUtils.load(in);
     }
 
+    public static IMappingFile load(File path, LoadOptions options) throws IOException {
+        try (InputStream in = new FileInputStream(path)) {
+            if (path.getName().endsWith(".gz"))
+                return load(new GZIPInputStream(in), options);
+            return load(in, options);
+        }
+    }
+
+    public static IMappingFile load(InputStream in, LoadOptions options) throws IOException {
+        return InternalUtils.load(in, options);
+    }
+
+    /*
+     * Uncompressed files are memory mapped and parsed in place, files ending in .gz are streamed.
+     */
+    public static IMappingFile load(Path path) throws IOException {
+        return load(path, LoadOptions.defaults());
+    }
+
+    public static IMappingFile load(Path path, LoadOptions options) throws IOException {
+        return InternalUtils.load(path, options);
+    }
+
     public enum Format {
         SRG  (false, false, false),
         XSRG (false, true,  false),
@@ -37,7 +64,9 @@ public interface IMappingFile {
         TSRG2(true,  true,  true ),
         PG   (true,  true,  false),
         TINY1(false, true,  true ),
-        TINY (true,  true,  false)
+        TINY (true,  true,  false),
+        // Not text, a compact encoding of every column and all metadata that is quick to load
+        BINARY(true, true,  true )
         ;
 
         private final boolean ordered;
@@ -77,11 +106,86 @@ public interface IMappingFile {
     Collection<? extends IClass> getClasses();
     IClass getClass(String original);
 
+    /*
+     * Looks a class up by its mapped name instead. The first lookup indexes every class by mapped name, which is shared with reverse().
+     * The default implementation searches every class, for implementations outside of this library.
+     */
+    @Nullable
+    default IClass getClassByMapped(String mapped) {
+        for (IClass cls : getClasses()) {
+            if (cls.getMapped().equals(mapped))
+                return cls;
+        }
+        return null;
+    }
+
     String remapPackage(String pkg);
     String remapClass(String desc);
     String remapDescriptor(String desc);
 
+    /*
+     * Remaps a batch of class names, out[x] is set to the remapped in[x], so out must be at least as long as in, and may be the same array.
+     * Each distinct name is only looked up once per batch. With a pool, large batches are split between its threads.
+     */
+    default void remapClasses(String[] in, String[] out) {
+        remapClasses(in, out, null);
+    }
+
+    default void remapClasses(String[] in, String[] out, @Nullable ForkJoinPool pool) {
+        if (out.length < in.length)
+            throw new IllegalArgumentException("Output array is shorter than the input: " + out.length + " < " + in.length);
+        for (int x = 0; x < in.length; x++)
+            out[x] = remapClass(in[x]);
+    }
+
+    /*
+     * Remaps a batch of descriptors, returned in the same order. Each distinct descriptor, and each distinct class in them, is only remapped once per batch.
+     */
+    default List<String> remapDescriptors(List<String> descs) {
+        return remapDescriptors(descs, null);
+    }
+
+    default List<String> remapDescriptors(List<String> descs, @Nullable ForkJoinPool pool) {
+        List<String> ret = new ArrayList<>(descs.size());
+        for (String desc : descs)
+            ret.add(remapDescriptor(desc));
+        return ret;
+    }
+
+    /*
+     * Limits how many remapClass results are remembered, once full the least recently used are evicted.
+     * The default is 65536, zero or less removes the limit. Changing the size starts a new, empty cache.
+     * Implementations without a cache ignore the size, and report no entries.
+     */
+    default void setRemapCacheSize(int size) {}
+
+    default CacheStats getRemapCacheStats() {
+        return new CacheStats(0, 0, 0, 0, 0);
+    }
+
     void write(Path path, Format format, boolean reversed) throws IOException;
+    default void write(Path path, Format format, boolean reversed, WriteOptions options) throws IOException {
+        write(path, format, reversed);
+    }
+
+    /*
+     * Writes every target, sorting each direction only once and sharing it between the targets.
+     * With a parallel WriteOptions the targets are written at the same time, each on its own thread.
+     */
+    default void write(Collection<WriteTarget> targets, WriteOptions options) throws IOException {
+        for (WriteTarget target : targets)
+            write(target.getPath(), target.getFormat(), target.isReversed(), options);
+    }
+
+    /*
+     * Writes UTF-8 text to the stream, or raw bytes for BINARY, which is flushed but not closed. Nothing is compressed, wrap the stream to do so.
+     */
+    void write(OutputStream out, Format format, boolean reversed) throws IOException;
+
+    /*
+     * Only the text formats can be written to an Appendable, BINARY throws an IllegalArgumentException.
+     */
+    void write(Appendable out, Format format, boolean reversed) throws IOException;
 
     IMappingFile reverse();
     IMappingFile rename(IRenamer renamer);
@@ -144,6 +248,28 @@ public interface IMappingFile {
         IField getField(String name);
         @Nullable
         IMethod getMethod(String name, String desc);
+
+        /*
+         * Like getClassByMapped, the members are indexed by mapped name the first time one is looked up.
+         * Methods are found by their mapped descriptor, as returned by IMethod.getMappedDescriptor.
+         */
+        @Nullable
+        default IField getFieldByMapped(String mapped) {
+            for (IField fld : getFields()) {
+                if (fld.getMapped().equals(mapped))
+                    return fld;
+            }
+            return null;
+        }
+
+        @Nullable
+        default IMethod getMethodByMapped(String mapped, String mappedDesc) {
+            for (IMethod mtd : getMethods()) {
+                if (mtd.getMapped().equals(mapped) && mtd.getMappedDescriptor().equals(mappedDesc))
+                    return mtd;
+            }
+            return null;
+        }
     }
 
     public interface IOwnedNode<T> extends INode {
@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+import org.jetbrains.annotations.Nullable;
+
+/*
+ * Receives the contents of a mapping file as it is read, without building a tree first.
+ * Every element is visited with one name per column, in the order given to visitHeader.
+ *
+ * Visiting a class makes it the owner of the fields and methods visited after it, and a method the owner of the parameters after it.
+ * Formats where each member line names its owner (SRG, XSRG, CSRG and Tiny v1) call visitClassReference whenever the owner changes,
+ * so the same class can be visited several times, with its members spread between the visits.
+ */
+public interface IMappingVisitor {
+    public static void visit(Path path, IMappingVisitor visitor) throws IOException {
+        InternalUtils.visit(path, visitor);
+    }
+
+    public static void visit(InputStream in, IMappingVisitor visitor) throws IOException {
+        InternalUtils.visit(in, visitor);
+    }
+
+    public enum Element { PACKAGE, CLASS, FIELD, METHOD, PARAMETER }
+
+    /*
+     * Called before anything else, with the name of each column.
+     */
+    void visitHeader(String... names);
+
+    void visitPackage(String... names);
+
+    void visitClass(String... names);
+
+    /*
+     * The owner named by a member line. Names the line does not include are null,
+     * and the class may be visited with its full names later in the file.
+     */
+    default void visitClassReference(String... names) {
+        visitClass(names);
+    }
+
+    void visitField(@Nullable String desc, String... names);
+
+    void visitMethod(String desc, String... names);
+
+    void visitParameter(int index, String... names);
+
+    /*
+     * Metadata, such as comments, for the last visited element of the given type.
+     */
+    void visitMeta(Element element, String key, String value);
+
+    /*
+     * Called once the whole file has been read.
+     */
+    default void visitEnd() {}
+}
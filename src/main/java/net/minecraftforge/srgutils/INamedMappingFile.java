@@ -8,6 +8,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.zip.GZIPInputStream;
@@ -27,12 +28,73 @@ public interface INamedMappingFile {
         return InternalUtils.loadNamed(in);
     }
 
+    public static INamedMappingFile load(File path, LoadOptions options) throws IOException {
+        try (InputStream in = new FileInputStream(path)) {
+            if (path.getName().endsWith(".gz"))
+                return load(new GZIPInputStream(in), options);
+            return load(in, options);
+        }
+    }
+
+    public static INamedMappingFile load(InputStream in, LoadOptions options) throws IOException {
+        return InternalUtils.loadNamed(in, options);
+    }
+
+    /*
+     * Uncompressed files are memory mapped and parsed in place, files ending in .gz are streamed.
+     */
+    public static INamedMappingFile load(Path path) throws IOException {
+        return load(path, LoadOptions.defaults());
+    }
+
+    public static INamedMappingFile load(Path path, LoadOptions options) throws IOException {
+        return InternalUtils.loadNamed(path, options);
+    }
+
     List<String> getNames();
+    /*
+     * A view of two of the names, which reads them from this file instead of copying them, so it is cheap to create and is kept for later calls.
+     */
     IMappingFile getMap(String from, String to);
 
+    /*
+     * Limits how many class names are kept by the cache used to remap descriptors, see IMappingFile.setRemapCacheSize.
+     */
+    default void setRemapCacheSize(int size) {}
+
+    default CacheStats getRemapCacheStats() {
+        return new CacheStats(0, 0, 0, 0, 0);
+    }
+
     default void write(Path path, Format format) throws IOException {
         write(path, format, getNames().toArray(new String[getNames().size()]));
     }
 
     void write(Path path, Format format, String... order) throws IOException;
+
+    default void write(Path path, Format format, WriteOptions options) throws IOException {
+        write(path, format, options, getNames().toArray(new String[getNames().size()]));
+    }
+
+    default void write(Path path, Format format, WriteOptions options, String... order) throws IOException {
+        write(path, format, order);
+    }
+
+    default void write(OutputStream out, Format format) throws IOException {
+        write(out, format, getNames().toArray(new String[getNames().size()]));
+    }
+
+    /*
+     * Writes UTF-8 text to the stream, or raw bytes for BINARY, which is flushed but not closed. Nothing is compressed, wrap the stream to do so.
+     */
+    void write(OutputStream out, Format format, String... order) throws IOException;
+
+    default void write(Appendable out, Format format) throws IOException {
+        write(out, format, getNames().toArray(new String[getNames().size()]));
+    }
+
+    /*
+     * Only the text formats can be written to an Appendable, BINARY throws an IllegalArgumentException.
+     */
+    void write(Appendable out, Format format, String... order) throws IOException;
 }
@@ -4,63 +4,300 @@
  */
 package net.minecraftforge.srgutils;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 import net.minecraftforge.srgutils.IMappingFile.Format;
+import net.minecraftforge.srgutils.IMappingVisitor.Element;
+import org.jetbrains.annotations.Nullable;
+
+import static net.minecraftforge.srgutils.IMappingVisitor.Element.*;
 
 class InternalUtils {
+    // Chunks smaller than this are not worth handing to another thread
+    private static final int MIN_CHUNK_SIZE = 1 << 16;
+
     static IMappingFile load(InputStream in) throws IOException {
-        INamedMappingFile named = loadNamed(in);
+        return load(in, LoadOptions.defaults());
+    }
+
+    static IMappingFile load(InputStream in, LoadOptions options) throws IOException {
+        INamedMappingFile named = loadNamed(in, options);
+        return named.getMap(named.getNames().get(0), named.getNames().get(1));
+    }
+
+    static IMappingFile load(Path path, LoadOptions options) throws IOException {
+        INamedMappingFile named = loadNamed(path, options);
         return named.getMap(named.getNames().get(0), named.getNames().get(1));
     }
 
     static INamedMappingFile loadNamed(InputStream in) throws IOException {
-        List<String> lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)).lines()
-            //.map(InternalUtils::stripComment)
-            .filter(l -> !l.isEmpty()) //Remove Empty lines
-            .collect(Collectors.toList());
-
-        if (lines.isEmpty())
-            return IMappingBuilder.create().build();
-
-        String firstLine = lines.get(0);
-        Iterator<String> itr = lines.iterator();
-        while (stripComment(firstLine).isEmpty() && itr.hasNext())
-            firstLine = itr.next();
-        String test = firstLine.split(" ")[0];
-
-        if ("PK:".equals(test) || "CL:".equals(test) || "FD:".equals(test) || "MD:".equals(test)) //SRG
-            return loadSRG(filter(lines)).build();
-        else if(firstLine.contains(" -> ")) // ProGuard
-            return loadProguard(filter(lines)).build();
-        else if (firstLine.startsWith("v1\t")) // Tiny V1
-            return loadTinyV1(lines).build();
-        else if (firstLine.startsWith("tiny\t")) // Tiny V2+
-            return loadTinyV2(lines).build();
-        else if (firstLine.startsWith("tsrg2 ")) // TSRG v2, parameters, and multi-names
-            return loadTSrg2(filter(lines)).build();
-        else // TSRG/CSRG
-            return loadSlimSRG(filter(lines)).build();
-    }
-
-    private static List<String> filter(List<String> lines) {
-        return lines.stream().map(InternalUtils::stripComment)
-        .filter(l -> !l.isEmpty()) //Remove Empty lines
-        .collect(Collectors.toList());
+        return loadNamed(in, LoadOptions.defaults());
+    }
+
+    static INamedMappingFile loadNamed(InputStream in, LoadOptions options) throws IOException {
+        if (options.getPool() == null && !options.isLazy())
+            return loadNamed(new LineReader(in), options);
+
+        // Chunks can only be split off, or indexed, once the whole file is in memory
+        byte[] data = new byte[1 << 16];
+        int length = 0;
+        for (int read; (read = in.read(data, length, data.length - length)) != -1; ) {
+            length += read;
+            if (length == data.length)
+                data = Arrays.copyOf(data, data.length * 2);
+        }
+        return loadNamed(new LineReader(ByteBuffer.wrap(data, 0, length), 0, length), options);
+    }
+
+    static INamedMappingFile loadNamed(Path path, LoadOptions options) throws IOException {
+        LineReader reader = map(path);
+        if (reader != null)
+            return loadNamed(reader, options);
+
+        try (InputStream in = open(path)) {
+            return loadNamed(in, options);
+        }
+    }
+
+    private static INamedMappingFile loadNamed(LineReader reader, LoadOptions options) throws IOException {
+        Parser parser = Parser.open(reader);
+        ForkJoinPool pool = options.getPool();
+
+        if (options.isLazy() && parser.index != null && reader.canSplit()) {
+            NamedMappingFile ret = new NamedMappingFile(true, null, parser.names);
+            ret.setIndex(parser.index.build(ret, reader));
+            return ret;
+        }
+
+        NamedMappingFile ret = new NamedMappingFile(false, options.isCompact() ? new NamePool() : null, parser.names);
+
+        List<MappingChunk> chunks = null;
+        if (pool != null && parser.unordered && reader.canSplit()) {
+            // Every line names its owner, so the file can be read in chunks, and merged in order afterwards
+            List<Callable<MappingChunk>> tasks = new ArrayList<>();
+            for (LineReader part : reader.split(pool.getParallelism() * 4, MIN_CHUNK_SIZE)) {
+                tasks.add(() -> {
+                    MappingChunk chunk = new MappingChunk(ret);
+                    return parser.body.read(part, chunk, true) ? chunk : null;
+                });
+            }
+            chunks = invokeAll(pool, tasks);
+            if (chunks.contains(null)) // Turned out to be ordered, so read it normally
+                chunks = null;
+        }
+
+        if (chunks == null) {
+            MappingChunk chunk = new MappingChunk(ret);
+            parser.body.read(reader, chunk, false);
+            chunks = Collections.singletonList(chunk);
+        }
+
+        MappingChunk.merge(ret, chunks, pool);
+        return ret;
+    }
+
+    static void visit(InputStream in, IMappingVisitor visitor) throws IOException {
+        visit(new LineReader(in), visitor);
+    }
+
+    static void visit(Path path, IMappingVisitor visitor) throws IOException {
+        LineReader reader = map(path);
+        if (reader != null) {
+            visit(reader, visitor);
+            return;
+        }
+
+        try (InputStream in = open(path)) {
+            visit(new LineReader(in), visitor);
+        }
+    }
+
+    private static void visit(LineReader reader, IMappingVisitor visitor) throws IOException {
+        Parser parser = Parser.open(reader);
+        visitor.visitHeader(parser.names.clone());
+        parser.body.read(reader, visitor, false);
+        visitor.visitEnd();
+    }
+
+    /*
+     * Maps an uncompressed file so lines are parsed straight out of the page cache, and only the names we keep are decoded.
+     * Returns null if the file has to be streamed instead.
+     */
+    @Nullable
+    private static LineReader map(Path path) throws IOException {
+        if (path.getFileName().toString().endsWith(".gz"))
+            return null;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) // Too big for a single buffer
+                return null;
+            return new LineReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), 0, (int)size);
+        }
+    }
+
+    private static InputStream open(Path path) throws IOException {
+        InputStream in = Files.newInputStream(path);
+        return path.getFileName().toString().endsWith(".gz") ? new GZIPInputStream(in) : in;
+    }
+
+    /*
+     * Runs the tasks on the pool and returns their results in order, rethrowing the first failure.
+     */
+    static <T> List<T> invokeAll(ForkJoinPool pool, List<Callable<T>> tasks) throws IOException {
+        List<T> ret = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : pool.invokeAll(tasks))
+                ret.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while loading mappings");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            // ForkJoinPool wraps checked exceptions from a Callable in plain RuntimeExceptions, so find the one that was thrown
+            while (cause.getClass() == RuntimeException.class && cause.getCause() != null)
+                cause = cause.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw new IOException(cause);
+        }
+        return ret;
+    }
+
+    interface BodyReader {
+        /*
+         * Reads the lines after the header into the visitor, returns false if the lines can not be read on their own.
+         * Partial is set when the reader is only part of the file.
+         */
+        boolean read(LineReader reader, IMappingVisitor visitor, boolean partial) throws IOException;
+    }
+
+    interface ClassKey {
+        /*
+         * The class a line that isn't indented belongs to, or null if it isn't part of a class.
+         */
+        @Nullable
+        String get(Tokenizer line);
+    }
+
+    interface Indexer {
+        /*
+         * Finds the classes in the rest of the reader, which is in memory, reading anything that isn't part of a class into the owner.
+         */
+        ClassIndex build(NamedMappingFile owner, LineReader reader) throws IOException;
+    }
+
+    /*
+     * The names and body reader of a file, detected from its first lines.
+     */
+    private static class Parser {
+        private final String[] names;
+        private final boolean unordered; // Every line names its owner, so the body can be split up
+        private final BodyReader body;
+        @Nullable
+        private final Indexer index; // Set for formats that can be indexed by class, see ClassIndex
+
+        private Parser(String[] names, boolean unordered, BodyReader body, @Nullable ClassKey key) {
+            this.names = names;
+            this.unordered = unordered;
+            this.body = body;
+            this.index = key == null ? null : (owner, reader) -> TextClassIndex.build(owner, reader, body, key);
+        }
+
+        private Parser(BinaryMappings.Reader binary) {
+            this.names = binary.getNames();
+            this.unordered = false;
+            this.body = (r, v, p) -> {
+                binary.read(v);
+                return true;
+            };
+            this.index = (owner, reader) -> binary.index(owner);
+        }
+
+        private static Parser unnamed(boolean unordered, BodyReader body, @Nullable ClassKey index) {
+            return new Parser(new String[] { "left", "right" }, unordered, body, index);
+        }
+
+        private static Parser open(LineReader reader) throws IOException {
+            if (reader.startsWith(BinaryMappings.MAGIC)) // Binary, which is read from a buffer holding the whole file
+                return new Parser(BinaryMappings.open(reader.remaining()));
+
+            Tokenizer firstLine = reader.peek();
+
+            if (firstLine == null)
+                return unnamed(false, (r, v, p) -> true, null);
+
+            firstLine.next(' ');
+
+            if (firstLine.is("PK:") || firstLine.is("CL:") || firstLine.is("FD:") || firstLine.is("MD:")) //SRG
+                return unnamed(true, InternalUtils::readSRG, null);
+            else if(firstLine.contains(" -> ")) // ProGuard
+                return unnamed(false, InternalUtils::readProguard, InternalUtils::proguardClass);
+            else if (firstLine.startsWith("v1\t")) // Tiny V1
+                return openTinyV1(reader);
+            else if (firstLine.startsWith("tiny\t")) // Tiny V2+
+                return openTinyV2(reader);
+            else if (firstLine.startsWith("tsrg2 ")) // TSRG v2, parameters, and multi-names
+                return openTSrg2(reader);
+            else // TSRG/CSRG
+                return unnamed(true, InternalUtils::readSlimSRG, InternalUtils::slimClass);
+        }
+    }
+
+    /*
+     * Reads the next count fields into a new array, this is the array handed to the visitor, so it's not wasted.
+     */
+    private static String[] names(Tokenizer line, char sep, int count, boolean escaped) {
+        String[] ret = new String[count];
+        for (int x = 0; x < count; x++) {
+            String name = line.nextField(sep).get();
+            ret[x] = escaped ? unescapeTinyString(name) : name;
+        }
+        return ret;
+    }
+
+    /*
+     * Index of the '/' separating an owner from a member name in the current field.
+     */
+    private static int splitOwner(Tokenizer line) throws IOException {
+        int idx = line.lastIndexOf('/');
+        if (idx == -1)
+            throw new IOException("Invalid SRG line, missing owner: " + line);
+        return idx;
     }
 
     /*
@@ -83,35 +320,45 @@ class InternalUtils {
      * FD: OriginalClass/OriginalField OriginalDeesc NewClass/NewField  NewDesc
      *
      */
-    private static IMappingBuilder loadSRG(List<String> lines) throws IOException {
-        IMappingBuilder ret = IMappingBuilder.create("left", "right");
-        Map<String, IMappingBuilder.IClass> classes = new HashMap<>();
-        for (String line : lines) {
-            String[] pts = line.split(" ");
-            switch (pts[0]) {
-                case "PK:": ret.addPackage(pts[1], pts[2]); break;
-                case "CL:": classes.put(pts[1], ret.addClass(pts[1], pts[2])); break;
-                case "FD:":
-                    if (pts.length == 5) {
-                        String[] left = rsplit(pts[1], '/', 1);
-                        String[] right = rsplit(pts[3], '/', 1);
-                        classes.computeIfAbsent(left[0], k -> ret.addClass(left[0], right[0])).field(left[1], right[1]).descriptor(pts[2]);
-                    } else {
-                        String[] left = rsplit(pts[1], '/', 1);
-                        String[] right = rsplit(pts[2], '/', 1);
-                        classes.computeIfAbsent(left[0], k -> ret.addClass(left[0], right[0])).field(left[1], right[1]);
-                    }
-                    break;
-                case "MD:":
-                    String[] left = rsplit(pts[1], '/', 1);
-                    String[] right = rsplit(pts[3], '/', 1);
-                    classes.computeIfAbsent(left[0], k -> ret.addClass(left[0], right[0])).method(pts[2], left[1], right[1]);
-                    break;
-                default:
-                    throw new IOException("Invalid SRG file, Unknown type: " + line);
-            }
+    private static boolean readSRG(LineReader reader, IMappingVisitor visitor, boolean partial) throws IOException {
+        // Lines are normally grouped by class, so we only need to decode the owner and visit it when it changes
+        String lastOwner = null;
+
+        Tokenizer line;
+        while ((line = reader.next(true)) != null) {
+            int count = line.count(' ');
+            line.next(' ');
+            if (line.is("PK:")) {
+                String original = line.nextField(' ').get();
+                visitor.visitPackage(original, line.nextField(' ').get());
+                lastOwner = null;
+            } else if (line.is("CL:")) {
+                String original = line.nextField(' ').get();
+                visitor.visitClass(original, line.nextField(' ').get());
+                lastOwner = original;
+            } else if (line.is("FD:") || line.is("MD:")) {
+                boolean method = line.is("MD:");
+                int split = splitOwner(line.nextField(' '));
+                boolean sameOwner = lastOwner != null && line.is(0, split, lastOwner);
+                String owner = sameOwner ? lastOwner : line.get(0, split);
+                String name = line.get(split + 1, line.fieldLength());
+                String desc = method || count == 5 ? line.nextField(' ').get() : null;
+
+                split = splitOwner(line.nextField(' '));
+                if (!sameOwner) {
+                    visitor.visitClassReference(owner, line.get(0, split));
+                    lastOwner = owner;
+                }
+                String mapped = line.get(split + 1, line.fieldLength());
+
+                if (method)
+                    visitor.visitMethod(desc, name, mapped);
+                else
+                    visitor.visitField(desc, name, mapped);
+            } else
+                throw new IOException("Invalid SRG file, Unknown type: " + line);
         }
-        return ret;
+        return true;
     }
 
     /*
@@ -141,54 +388,88 @@ class InternalUtils {
      *     10:15 boolean oldFunction(java.lang.Objeect,int[]) -> newFunction
      *
      */
-    private static IMappingBuilder loadProguard(List<String> lines) throws IOException {
-        IMappingBuilder ret = IMappingBuilder.create("left", "right");
-
-        IMappingBuilder.IClass cls = null;
-        for (String line : lines) {
-            line = line.replace('.', '/');
-            if (!line.startsWith("    ") && line.endsWith(":")) {
-                String[] pts = line.replace('.', '/').split(" -> ");
-                cls = ret.addClass(pts[0], pts[1].substring(0, pts[1].length() - 1));
+    private static boolean readProguard(LineReader reader, IMappingVisitor visitor, boolean partial) throws IOException {
+        boolean inClass = false;
+        Tokenizer line;
+        StringBuilder desc = new StringBuilder();
+        while ((line = reader.next(true)) != null) {
+            if (!line.startsWith("    ") && line.endsWith(':')) {
+                String original = line.nextField(' ').get().replace('.', '/');
+                line.nextField(' '); // ->
+                line.nextField(' ');
+                visitor.visitClass(original, line.get(0, line.fieldLength() - 1).replace('.', '/'));
+                inClass = true;
             } else if (line.contains("(") && line.contains(")")) {
-                if (cls == null)
+                if (!inClass)
                     throw new IOException("Invalid PG line, missing class: " + line);
 
-                line = line.trim();
+                line.skip(' ');
+                line.nextField(' ');
                 int start = 0;
                 int end = 0;
-                if (line.indexOf(':') != -1) {
-                    int i = line.indexOf(':');
+                int typeStart = 0;
+                int i = line.indexOf(':', 0);
+                if (i != -1) {
                     int j = line.indexOf(':', i + 1);
-                    start = Integer.parseInt(line.substring(0,     i));
-                    end   = Integer.parseInt(line.substring(i + 1, j));
-                    line = line.substring(j + 1);
+                    start = line.getInt(0,     i);
+                    end   = line.getInt(i + 1, j);
+                    typeStart = j + 1;
                 }
+                String _ret = toDesc(line.get(typeStart, line.fieldLength()).replace('.', '/'));
 
-                String obf = line.split(" -> ")[1];
-                String _ret = toDesc(line.split(" ")[0]);
-                String name = line.substring(line.indexOf(' ') + 1, line.indexOf('('));
-                String[] args = line.substring(line.indexOf('(') + 1, line.indexOf(')')).split(",");
+                line.nextField(' ');
+                int open = line.indexOf('(', 0);
+                int close = line.indexOf(')', open);
+                String name = line.get(0, open);
 
-                StringBuffer desc = new StringBuffer();
+                desc.setLength(0);
                 desc.append('(');
-                for (String arg : args) {
-                    if (arg.isEmpty()) break;
-                    desc.append(toDesc(arg));
+                for (int argStart = open + 1; argStart < close; ) {
+                    int argEnd = line.indexOf(',', argStart);
+                    if (argEnd == -1 || argEnd > close)
+                        argEnd = close;
+                    desc.append(toDesc(line.get(argStart, argEnd).replace('.', '/')));
+                    argStart = argEnd + 1;
                 }
                 desc.append(')').append(_ret);
-                IMappingBuilder.IMethod mtd = cls.method(desc.toString(), name, obf);
-                if (start != 0) mtd.meta("start_line", Integer.toString(start));
-                if (end   != 0) mtd.meta("end_line",   Integer.toString(end));
+
+                line.nextField(' '); // ->
+                String obf = line.nextField(' ').get();
+                visitor.visitMethod(desc.toString(), name, obf);
+                if (start != 0) visitor.visitMeta(METHOD, "start_line", Integer.toString(start));
+                if (end   != 0) visitor.visitMeta(METHOD, "end_line",   Integer.toString(end));
             } else {
-                if (cls == null)
+                if (!inClass)
                     throw new IOException("Invalid PG line, missing class: " + line);
-                String[] pts = line.trim().split(" ");
-                cls.field(pts[1], pts[3]).descriptor(toDesc(pts[0]));
+                line.skip(' ');
+                String type = line.nextField(' ').get().replace('.', '/');
+                String name = line.nextField(' ').get();
+                line.nextField(' '); // ->
+                visitor.visitField(toDesc(type), name, line.nextField(' ').get());
             }
         }
 
-        return ret;
+        return true;
+    }
+
+    /*
+     * Shared by TSRG, CSRG and TSRG2, package names end with a /, and CSRG member lines start with their owner.
+     */
+    @Nullable
+    private static String slimClass(Tokenizer line) {
+        line.stripComment();
+        line.next(' ');
+        if (line.fieldLength() == 0 || line.fieldByte(line.fieldLength() - 1) == '/')
+            return null;
+        return line.get();
+    }
+
+    @Nullable
+    private static String proguardClass(Tokenizer line) {
+        line.stripComment();
+        if (!line.endsWith(':') || !line.next(' '))
+            return null;
+        return line.get().replace('.', '/');
     }
 
     /*
@@ -212,51 +493,66 @@ class InternalUtils {
      *     OldMethod OldDesc NewMethod
      *
      */
-    private static IMappingBuilder loadSlimSRG(List<String> lines) throws IOException {
-        IMappingBuilder ret = IMappingBuilder.create("left", "right");
-        Map<String, IMappingBuilder.IClass> classes = new HashMap<>();
-
-        lines.stream().filter(l -> l.charAt(0) != '\t')
-        .map(l -> l.split(" "))
-        .filter(pts -> pts.length == 2)
-        .forEach(pts -> {
-            if (pts[0].endsWith("/"))
-                ret.addPackage(pts[0].substring(0, pts[0].length() - 1), pts[1].substring(0, pts[1].length() -1));
-            else
-                classes.put(pts[0], ret.addClass(pts[0], pts[1]));
-        });
-
-        IMappingBuilder.IClass cls = null;
-        for (String line : lines) {
-            String[] pts = line.split(" ");
-            if (pts[0].charAt(0) == '\t') {
-                if (cls == null)
+    private static boolean readSlimSRG(LineReader reader, IMappingVisitor visitor, boolean partial) throws IOException {
+        String[] declared = null; // The last class line, TSRG members belong to it
+        String current = null; // The class the visitor is in, CSRG member lines can move it elsewhere
+        Tokenizer line;
+        while ((line = reader.next(true)) != null) {
+            if (line.byteAt(0) == '\t') {
+                if (partial) // TSRG members depend on the line before them
+                    return false;
+                if (declared == null)
                     throw new IOException("Invalid TSRG line, missing class: " + line);
-                pts[0] = pts[0].substring(1);
-                if (pts.length == 2)
-                    cls.field(pts[0], pts[1]);
-                else if (pts.length == 3)
-                    cls.method(pts[1], pts[0], pts[2]);
-                else
+                if (!declared[0].equals(current)) {
+                    visitor.visitClass(declared);
+                    current = declared[0];
+                }
+                line.skip('\t');
+                int count = line.count(' ');
+                String name = line.nextField(' ').get();
+                if (count == 2)
+                    visitor.visitField(null, name, line.nextField(' ').get());
+                else if (count == 3) {
+                    String desc = line.nextField(' ').get();
+                    visitor.visitMethod(desc, name, line.nextField(' ').get());
+                } else
                     throw new IOException("Invalid TSRG line, to many parts: " + line);
             } else {
-                if (pts.length == 2) {
-                    if (!pts[0].endsWith("/"))
-                        cls = classes.get(pts[0]);
-                }
-                else if (pts.length == 3)
-                    classes.computeIfAbsent(pts[0], k -> ret.addClass(k, k)).field(pts[1], pts[2]);
-                else if (pts.length == 4)
-                    classes.computeIfAbsent(pts[0], k -> ret.addClass(k, k)).method(pts[2], pts[1], pts[3]);
-                else
+                int count = line.count(' ');
+                if (count == 2) {
+                    line.next(' ');
+                    if (line.fieldByte(line.fieldLength() - 1) == '/') {
+                        String original = line.get(0, line.fieldLength() - 1);
+                        line.nextField(' ');
+                        visitor.visitPackage(original, line.get(0, line.fieldLength() - 1));
+                    } else { // A class can be split over multiple blocks, visiting it again keeps adding to it
+                        String original = line.get();
+                        declared = new String[] { original, line.nextField(' ').get() };
+                        visitor.visitClass(declared);
+                        current = original;
+                    }
+                } else if (count == 3 || count == 4) {
+                    // CSRG member lines can come before their class line, so we don't know the mapped name of the owner
+                    line.nextField(' ');
+                    if (current == null || !line.is(current)) {
+                        current = line.get();
+                        visitor.visitClassReference(current, null);
+                    }
+                    String name = line.nextField(' ').get();
+                    if (count == 3)
+                        visitor.visitField(null, name, line.nextField(' ').get());
+                    else {
+                        String desc = line.nextField(' ').get();
+                        visitor.visitMethod(desc, name, line.nextField(' ').get());
+                    }
+                } else
                     throw new IOException("Invalid CSRG line, to many parts: " + line);
             }
         }
-
-        return ret;
+        return true;
     }
 
-    private static IMappingBuilder loadTSrg2(List<String> lines) throws IOException {
+    private static Parser openTSrg2(LineReader reader) throws IOException {
         /*
          *   This is a extended spec of the TSRG format, mainly to allow multiple names
          * for entries, consolidating our files into a single one, parameter names, and
@@ -292,248 +588,249 @@ class InternalUtils {
          *   Line numbers:
          *     I can't see a use for this
          */
-        String[] header = lines.get(0).split(" ");
-        if (header.length < 3) throw new IOException("Invalid TSrg v2 Header: " + lines.get(0));
-        IMappingBuilder ret = IMappingBuilder.create(Arrays.copyOfRange(header, 1, header.length));
-        int nameCount = header.length - 1;
-        lines.remove(0);
-
-        IMappingBuilder.IClass cls = null;
-        IMappingBuilder.IMethod mtd = null;
-        for (String line : lines) {
+        Tokenizer line = reader.next(true);
+        int nameCount = line.count(' ') - 1;
+        if (nameCount < 2) throw new IOException("Invalid TSrg v2 Header: " + line);
+        line.next(' ');
+        return new Parser(names(line, ' ', nameCount, false), false, (r, v, p) -> readTSrg2(r, v, nameCount), InternalUtils::slimClass);
+    }
+
+    private static boolean readTSrg2(LineReader reader, IMappingVisitor visitor, int nameCount) throws IOException {
+        boolean inClass = false;
+        boolean inMethod = false;
+        Tokenizer line;
+        while ((line = reader.next(true)) != null) {
             if (line.length() < 2)
                 throw new IOException("Invalid TSRG v2 line, too short: " + line);
 
-            String[] pts = line.split(" ");
-            if (line.charAt(0) != '\t') { // Classes or Packages are not tabbed
-                if (pts.length != nameCount)
+            int depth = line.skip('\t');
+            int count = line.count(' ');
+            if (depth == 0) { // Classes or Packages are not tabbed
+                if (count != nameCount)
                     throw new IOException("Invalid TSRG v2 line: " + line);
-                if (pts[0].charAt(pts[0].length() - 1) == '/') { // Packages
-                    for (int x = 0; x < pts.length; x++)
-                        pts[x] = pts[x].substring(0, pts[x].length() - 1);
-                    ret.addPackage(pts);
-                    cls = null;
-                } else
-                    cls = ret.addClass(pts);
-                mtd = null;
-            } else if (line.charAt(1) == '\t') {
-                if (mtd == null)
+                String[] names = names(line, ' ', nameCount, false);
+                if (names[0].charAt(names[0].length() - 1) == '/') { // Packages
+                    for (int x = 0; x < names.length; x++)
+                        names[x] = names[x].substring(0, names[x].length() - 1);
+                    visitor.visitPackage(names);
+                    inClass = false;
+                } else {
+                    visitor.visitClass(names);
+                    inClass = true;
+                }
+                inMethod = false;
+            } else if (depth > 1) {
+                if (!inMethod)
                     throw new IOException("Invalid TSRG v2 line, missing method: " + line);
-                pts[0] = pts[0].substring(2);
 
-                if (pts.length == 1 && pts[0].equals("static"))
-                    mtd.meta("is_static", "true");
-                else if (pts.length == nameCount + 1) // Parameter
-                    mtd.parameter(Integer.parseInt(pts[0]), Arrays.copyOfRange(pts, 1, pts.length));
+                line.next(' ');
+                if (count == 1 && line.is("static"))
+                    visitor.visitMeta(METHOD, "is_static", "true");
+                else if (count == nameCount + 1) // Parameter
+                    visitor.visitParameter(line.getInt(), names(line, ' ', nameCount, false));
                 else
                     throw new IOException("Invalid TSRG v2 line, too many parts: " + line);
             } else {
-                if (cls == null)
+                if (!inClass)
                     throw new IOException("Invalid TSRG v2 line, missing class: " + line);
-                pts[0] = pts[0].substring(1);
-
-                if (pts.length == nameCount) // Field without descriptor
-                    cls.field(pts);
-                else if (pts.length == 1 + nameCount) {
-                    swapFirst(pts);
-                    if (pts[0].charAt(0) == '(') { // Methods
-                        mtd = cls.method(pts[0], Arrays.copyOfRange(pts, 1, pts.length));
+
+                if (count == nameCount) // Field without descriptor
+                    visitor.visitField(null, names(line, ' ', nameCount, false));
+                else if (count == 1 + nameCount) {
+                    String[] names = new String[nameCount];
+                    names[0] = line.nextField(' ').get();
+                    line.nextField(' ');
+                    if (line.fieldByte(0) == '(') { // Methods
+                        String desc = line.get();
+                        for (int x = 1; x < nameCount; x++)
+                            names[x] = line.nextField(' ').get();
+                        visitor.visitMethod(desc, names);
+                        inMethod = true;
                     } else { // Field with Descriptor
-                        mtd = null;
-                        cls.field(Arrays.copyOfRange(pts, 1, pts.length)).descriptor(pts[0]);
+                        String desc = line.get();
+                        for (int x = 1; x < nameCount; x++)
+                            names[x] = line.nextField(' ').get();
+                        visitor.visitField(desc, names);
+                        inMethod = false;
                     }
                 } else
                     throw new IOException("Invalid TSRG v2 line, to many parts: " + line);
             }
         }
 
-        return ret;
+        return true;
     }
 
-    private static IMappingBuilder loadTinyV1(List<String> lines) throws IOException {
+    private static Parser openTinyV1(LineReader reader) throws IOException {
         /*
          *  The entire file is just a list tab-separated-value lines.
          *  It can have a unlimited number of name steps, The first part of the header is always 'v1'
          *  anything extra tells us the names of mapping stages. So we build a bunch of maps from the first value to the Nth value
          */
-        String[] header = lines.get(0).split("\t");
-        if (header.length < 3) throw new IOException("Invalid Tiny v1 Header: " + lines.get(0));
-        IMappingBuilder ret = IMappingBuilder.create(Arrays.copyOfRange(header, 1, header.length));
-        Map<String, IMappingBuilder.IClass> classes = new HashMap<>();
-        int nameCount = header.length - 1;
-
-        for (int x = 1; x < lines.size(); x++) {
-            String[] line = lines.get(x).split("\t");
-            if (line[0].startsWith("#")) { // Comment
+        Tokenizer line = reader.next(false);
+        int nameCount = line.count('\t') - 1;
+        if (nameCount < 2) throw new IOException("Invalid Tiny v1 Header: " + line);
+        line.next('\t');
+        return new Parser(names(line, '\t', nameCount, false), true, (r, v, p) -> readTinyV1(r, v, nameCount), null);
+    }
+
+    private static boolean readTinyV1(LineReader reader, IMappingVisitor visitor, int nameCount) throws IOException {
+        String lastOwner = null;
+
+        Tokenizer line;
+        while ((line = reader.next(false)) != null) {
+            if (line.byteAt(0) == '#') // Comment
                 continue;
-            }
-            switch (line[0]) {
-                case "CLASS": // CLASS Name1 Name2 Name3...
-                    if (line.length != nameCount + 1)
-                        throw new IOException("Invalid Tiny v1 line: #" + x + ": " + line);
-                    classes.put(line[1], ret.addClass(Arrays.copyOfRange(line, 1, line.length)));
-                    break;
-                case "FIELD": // FIELD Owner Desc Name1 Name2 Name3
-                    if (line.length != nameCount + 3)
-                        throw new IOException("Invalid Tiny v1 line: #" + x + ": " + line);
-                    classes.computeIfAbsent(line[1], k -> ret.addClass(duplicate(k, nameCount)))
-                        .field(Arrays.copyOfRange(line, 3, line.length))
-                        .descriptor(line[2]);
-                    break;
-                case "METHOD": // METHOD Owner Desc Name1 Name2 Name3
-                    if (line.length != nameCount + 3)
-                        throw new IOException("Invalid Tiny v1 line: #" + x + ": " + line);
-                    classes.computeIfAbsent(line[1], k -> ret.addClass(duplicate(k, nameCount)))
-                        .method(line[2], Arrays.copyOfRange(line, 3, line.length));
-                    break;
-                default:
-                    throw new IOException("Invalid Tiny v1 line: #" + x + ": " + line);
-            }
-        }
 
-        return ret;
+            int count = line.count('\t');
+            line.next('\t');
+            if (line.is("CLASS")) { // CLASS Name1 Name2 Name3...
+                if (count != nameCount + 1)
+                    throw new IOException("Invalid Tiny v1 line: #" + reader.lineNumber() + ": " + line);
+                String[] names = names(line, '\t', nameCount, false);
+                visitor.visitClass(names);
+                lastOwner = names[0];
+            } else if (line.is("FIELD") || line.is("METHOD")) { // FIELD/METHOD Owner Desc Name1 Name2 Name3
+                if (count != nameCount + 3)
+                    throw new IOException("Invalid Tiny v1 line: #" + reader.lineNumber() + ": " + line);
+                boolean method = line.is("METHOD");
+
+                line.nextField('\t');
+                if (lastOwner == null || !line.is(lastOwner)) { // Member lines only give the first name of their owner
+                    lastOwner = line.get();
+                    String[] owner = new String[nameCount];
+                    owner[0] = lastOwner;
+                    visitor.visitClassReference(owner);
+                }
+                String desc = line.nextField('\t').get();
+                String[] names = names(line, '\t', nameCount, false);
+
+                if (method)
+                    visitor.visitMethod(desc, names);
+                else
+                    visitor.visitField(desc, names);
+            } else
+                throw new IOException("Invalid Tiny v1 line: #" + reader.lineNumber() + ": " + line);
+        }
+        return true;
     }
 
-    private static IMappingBuilder loadTinyV2(List<String> lines) throws IOException {
+    private static Parser openTinyV2(LineReader reader) throws IOException {
         /*
          * This is the only spec I could find on it, so i'm assuming its official:
          * https://github.com/FabricMC/tiny-remapper/issues/9
          */
-        String[] header = lines.get(0).split("\t");
-        if (header.length < 5) throw new IOException("Invalid Tiny v2 Header: " + lines.get(0));
+        Tokenizer line = reader.next(false);
+        int nameCount = line.count('\t') - 3;
+        if (nameCount < 2) throw new IOException("Invalid Tiny v2 Header: " + line);
 
         try {
-            int major = Integer.parseInt(header[1]);
-            int minor = Integer.parseInt(header[2]);
+            line.next('\t');
+            int major = line.nextField('\t').getInt();
+            int minor = line.nextField('\t').getInt();
             if (major != 2 || minor != 0)
-                throw new IOException("Unsupported Tiny v2 version: " + lines.get(0));
+                throw new IOException("Unsupported Tiny v2 version: " + line);
         } catch (NumberFormatException e) {
-            throw new IOException("Invalid Tiny v2 Header: " + lines.get(0));
+            throw new IOException("Invalid Tiny v2 Header: " + line);
         }
-        IMappingBuilder ret = IMappingBuilder.create(Arrays.copyOfRange(header, 3, header.length));
+        String[] names = names(line, '\t', nameCount, false);
 
-        int nameCount = header.length - 3;
         boolean escaped = false;
         Map<String, String> properties = new HashMap<>();
-        int start = 1;
-        for(start = 1; start < lines.size(); start++) {
-            String[] line = lines.get(start).split("\t");
-            if (!line[0].isEmpty())
+        while ((line = reader.next(false)) != null) {
+            if (line.byteAt(0) != '\t') {
+                reader.pushBack(); // The first class, read it again with the rest of the body
                 break;
+            }
 
-            properties.put(line[1], line.length < 3 ? null : escaped ? unescapeTinyString(line[2]) : line[2]);
-            if ("escaped-names".equals(line[1]))
+            int count = line.count('\t');
+            line.next('\t');
+            String key = line.nextField('\t').get();
+            properties.put(key, count < 3 ? null : escaped ? unescapeTinyString(line.nextField('\t').get()) : line.nextField('\t').get());
+            if ("escaped-names".equals(key))
                 escaped = true;
         }
 
-        Deque<TinyV2State> stack = new ArrayDeque<>();
-        IMappingBuilder.IClass cls = null;
-        IMappingBuilder.IField field = null;
-        IMappingBuilder.IMethod method = null;
-        IMappingBuilder.IParameter param = null;
+        boolean _escaped = escaped;
+        return new Parser(names, false, (r, v, p) -> readTinyV2(r, v, nameCount, _escaped), l -> tinyV2Class(l, _escaped));
+    }
 
-        for (int x = start; x < lines.size(); x++) {
-            String line = lines.get(x);
+    @Nullable
+    private static String tinyV2Class(Tokenizer line, boolean escaped) {
+        if (!line.next('\t') || !line.is("c") || !line.next('\t'))
+            return null;
+        return escaped ? unescapeTinyString(line.get()) : line.get();
+    }
 
-            int newdepth = 0;
-            while (line.charAt(newdepth) == '\t')
-                newdepth++;
-            if (newdepth != 0)
-                line = line.substring(newdepth);
+    private static boolean readTinyV2(LineReader reader, IMappingVisitor visitor, int nameCount, boolean escaped) throws IOException {
+        Deque<TinyV2State> stack = new ArrayDeque<>();
+
+        Tokenizer line;
+        while ((line = reader.next(false)) != null) {
+            int newdepth = line.skip('\t');
 
             if (newdepth <= stack.size()) {
-                while (stack.size() != newdepth) {
-                    switch(stack.pop()) {
-                        case CLASS:     cls    = null; break;
-                        case FIELD:     field  = null; break;
-                        case METHOD:    method = null; break;
-                        case PARAMETER: param  = null; break;
-                        default: break;
-                    }
-                }
+                while (stack.size() != newdepth)
+                    stack.pop();
             } else {
-                throw tiny2Exception(x, line);
+                throw tiny2Exception(reader, line);
             }
 
-            String[] parts = line.split("\t");
-            if (escaped) {
-                for (int y = 1; y < parts.length; y++)
-                    parts[y] = unescapeTinyString(parts[y]);
-            }
-
-            switch (parts[0]) {
-                case "c":
-                    if (stack.isEmpty()) { // Class: c Name1 Name2 Name3
-                        if (parts.length != nameCount + 1)
-                            throw tiny2Exception(x, line);
-
-                        cls = ret.addClass(Arrays.copyOfRange(parts, 1, parts.length));
-                        stack.push(TinyV2State.CLASS);
-                    } else { // Comment
-                        String comment = unescapeTinyString(parts[1]);
-                        switch (stack.peek()) {
-                            case CLASS:
-                                if (cls == null) throw tiny2Exception(x, line);
-                                cls.meta("comment", comment);
-                                break;
-                            case FIELD:
-                                if (field == null) throw tiny2Exception(x, line);
-                                field.meta("comment", comment);
-                                break;
-                            case METHOD:
-                                if (method == null) throw tiny2Exception(x, line);
-                                method.meta("comment", comment);
-                                break;
-                            case PARAMETER:
-                                if (param == null) throw tiny2Exception(x, line);
-                                param.meta("comment", comment);
-                                break;
-                            case VARIABLE:
-                                break; // TODO: [SRGUtils][LocalVariables] Support LocalVariable comments in Mapping files
-                            default:
-                                throw tiny2Exception(x, line);
-                        }
+            int count = line.count('\t');
+            line.next('\t');
+
+            if (line.is("c")) {
+                if (stack.isEmpty()) { // Class: c Name1 Name2 Name3
+                    if (count != nameCount + 1)
+                        throw tiny2Exception(reader, line);
+
+                    visitor.visitClass(names(line, '\t', nameCount, escaped));
+                    stack.push(TinyV2State.CLASS);
+                } else { // Comment
+                    String comment = unescapeTinyString(line.nextField('\t').get());
+                    switch (stack.peek()) {
+                        case CLASS:     visitor.visitMeta(CLASS,     "comment", comment); break;
+                        case FIELD:     visitor.visitMeta(FIELD,     "comment", comment); break;
+                        case METHOD:    visitor.visitMeta(METHOD,    "comment", comment); break;
+                        case PARAMETER: visitor.visitMeta(PARAMETER, "comment", comment); break;
+                        case VARIABLE:
+                            break; // TODO: [SRGUtils][LocalVariables] Support LocalVariable comments in Mapping files
+                        default:
+                            throw tiny2Exception(reader, line);
                     }
-                    break;
-                case "f": // Field: f desc Name1 Name2 Name3
-                    if (parts.length != nameCount + 2 || stack.peek() != TinyV2State.CLASS)
-                        throw tiny2Exception(x, line);
-
-                    field = cls.field(Arrays.copyOfRange(parts, 2, parts.length)).descriptor(parts[1]);
-                    stack.push(TinyV2State.FIELD);
-
-                    break;
-
-                case "m": // Method: m desc Name1 Name2 Name3
-                    if (parts.length != nameCount + 2 || stack.peek() != TinyV2State.CLASS)
-                        throw tiny2Exception(x, line);
-
-                    method = cls.method(parts[1], Arrays.copyOfRange(parts, 2, parts.length));
-                    stack.push(TinyV2State.METHOD);
-
-                    break;
-
-                case "p": // Parameters: p index Name1 Name2 Name3
-                    if (parts.length != nameCount + 2 || stack.peek() != TinyV2State.METHOD)
-                        throw tiny2Exception(x, line);
-
-                    param = method.parameter(Integer.parseInt(parts[1]), Arrays.copyOfRange(parts, 2, parts.length));
-                    stack.push(TinyV2State.PARAMETER);
-
-                    break;
-                case "v": // Local Variable: v index start Name1 Name2 Name3?
-                    stack.push(TinyV2State.VARIABLE);
-                    break; // TODO: [SRGUtils][LocalVariables] Support LocalVariables in Mapping files
-                default:
-                    throw tiny2Exception(x, line);
-            }
+                }
+            } else if (line.is("f")) { // Field: f desc Name1 Name2 Name3
+                if (count != nameCount + 2 || stack.peek() != TinyV2State.CLASS)
+                    throw tiny2Exception(reader, line);
+
+                String desc = line.nextField('\t').get();
+                visitor.visitField(escaped ? unescapeTinyString(desc) : desc, names(line, '\t', nameCount, escaped));
+                stack.push(TinyV2State.FIELD);
+            } else if (line.is("m")) { // Method: m desc Name1 Name2 Name3
+                if (count != nameCount + 2 || stack.peek() != TinyV2State.CLASS)
+                    throw tiny2Exception(reader, line);
+
+                String desc = line.nextField('\t').get();
+                visitor.visitMethod(escaped ? unescapeTinyString(desc) : desc, names(line, '\t', nameCount, escaped));
+                stack.push(TinyV2State.METHOD);
+            } else if (line.is("p")) { // Parameters: p index Name1 Name2 Name3
+                if (count != nameCount + 2 || stack.peek() != TinyV2State.METHOD)
+                    throw tiny2Exception(reader, line);
+
+                int index = line.nextField('\t').getInt();
+                visitor.visitParameter(index, names(line, '\t', nameCount, escaped));
+                stack.push(TinyV2State.PARAMETER);
+            } else if (line.is("v")) { // Local Variable: v index start Name1 Name2 Name3?
+                stack.push(TinyV2State.VARIABLE); // TODO: [SRGUtils][LocalVariables] Support LocalVariables in Mapping files
+            } else
+                throw tiny2Exception(reader, line);
         }
 
-        return ret;
+        return true;
     }
     enum TinyV2State { ROOT, CLASS, FIELD, METHOD, PARAMETER, VARIABLE }
-    private static IOException tiny2Exception(int line, String data) {
-        return new IOException("Invalid Tiny v2 line: #" + (line + 1) + ": " + data);
+    private static IOException tiny2Exception(LineReader reader, Tokenizer data) {
+        return new IOException("Invalid Tiny v2 line: #" + reader.lineNumber() + ": " + data);
     }
 
     /* <escaped-string> is a string that must not contain <eol> and escapes
@@ -559,6 +856,40 @@ class InternalUtils {
                 .replace("\0", "\\0");
     }
 
+    /*
+     * Remaps the class in every L...; of the descriptor, the same matches the old L(?<cls>[^;]+); pattern found.
+     * Returns the same instance if no class changes, otherwise the result is built in a single pass.
+     */
+    static String remapDescriptor(String desc, UnaryOperator<String> remapper) {
+        StringBuilder buf = null;
+        int copied = 0; // Everything before this has been appended to buf
+        int len = desc.length();
+        for (int x = 0; x < len; x++) {
+            if (desc.charAt(x) != 'L')
+                continue;
+
+            int end = desc.indexOf(';', x + 1);
+            if (end == -1) // No more classes can be closed
+                break;
+            if (end == x + 1) // Empty names are not classes, the ; is skipped by the next iteration
+                continue;
+
+            String cls = desc.substring(x + 1, end);
+            String mapped = remapper.apply(cls);
+            if (!mapped.equals(cls)) {
+                if (buf == null)
+                    buf = new StringBuilder(len + 32);
+                buf.append(desc, copied, x + 1).append(mapped);
+                copied = end;
+            }
+            x = end;
+        }
+
+        if (buf == null)
+            return desc;
+        return buf.append(desc, copied, len).toString();
+    }
+
     static String toDesc(String type) {
         if (type.endsWith("[]"))    return "[" + toDesc(type.substring(0, type.length() - 2));
         if (type.equals("int"))     return "I";
@@ -627,19 +958,6 @@ class InternalUtils {
         return buf.toString();
     }
 
-    private static String[] rsplit(String str, char chr, int count) {
-        List<String> pts = new ArrayList<>();
-        int idx;
-        while ((idx = str.lastIndexOf(chr)) != -1 && count > 0) {
-            pts.add(str.substring(idx + 1));
-            str = str.substring(0, idx);
-            count--;
-        }
-        pts.add(str);
-        Collections.reverse(pts);
-        return pts.toArray(new String[pts.size()]);
-    }
-
     private static final List<String> ORDER = Arrays.asList("PK:", "CL:", "FD:", "MD:");
     public static int compareLines(String o1, String o2) {
         String[] pt1 = o1.split(" ");
@@ -665,6 +983,108 @@ class InternalUtils {
         return o1.compareTo(o2);
     }
 
+    /*
+     * compareLines with the splitting done once per line, so sorting doesn't allocate.
+     * Every comparison has the same result as compareLines, so sorting the same list gives exactly the same order, ties included.
+     */
+    private static final class SrgLineKey implements Comparable<SrgLineKey> {
+        private final String line;
+        private final String prefix;
+        private final int kind; // Index in ORDER
+        @Nullable private final SrgClassKey owner; // The class for CL:, the owner for FD: and MD:
+        @Nullable private final String name;
+
+        private SrgLineKey(String line) {
+            this.line = line;
+            int space = line.indexOf(' ');
+            this.prefix = space == -1 ? line : line.substring(0, space);
+            this.kind = ORDER.indexOf(this.prefix);
+
+            if (this.kind == 1 || this.kind == 2 || this.kind == 3) {
+                int end = line.indexOf(' ', space + 1);
+                String first = line.substring(space + 1, end == -1 ? line.length() : end);
+                if (this.kind == 1) {
+                    this.owner = new SrgClassKey(first);
+                    this.name = null;
+                } else {
+                    int idx = first.lastIndexOf('/');
+                    this.owner = new SrgClassKey(first.substring(0, idx));
+                    this.name = first.substring(idx + 1);
+                }
+            } else {
+                this.owner = null;
+                this.name = null;
+            }
+        }
+
+        @Override
+        public int compareTo(SrgLineKey o) {
+            if (!this.prefix.equals(o.prefix))
+                return this.kind - o.kind;
+            if (this.owner == null) // Packages, and anything unknown
+                return this.line.compareTo(o.line);
+            int ret = this.owner.compareTo(o.owner);
+            if (ret != 0 || this.name == null)
+                return ret;
+            return this.name.compareTo(o.name);
+        }
+    }
+
+    /*
+     * compareCls, with the $ split recorded as the end of each part.
+     */
+    private static final class SrgClassKey {
+        private final String value;
+        private final boolean packaged;
+        private final int[] ends;
+
+        private SrgClassKey(String value) {
+            this.value = value;
+            this.packaged = value.indexOf('/') > 0;
+
+            // Same parts as String.split, trailing empty parts are dropped if there was a $ at all
+            int count = 1;
+            for (int x = 0; x < value.length(); x++) {
+                if (value.charAt(x) == '$')
+                    count++;
+            }
+            int[] ends = new int[count];
+            int part = 0;
+            for (int x = 0; x < value.length(); x++) {
+                if (value.charAt(x) == '$')
+                    ends[part++] = x;
+            }
+            ends[part] = value.length();
+            if (count > 1) {
+                while (count > 0 && ends[count - 1] == (count == 1 ? 0 : ends[count - 2] + 1))
+                    count--;
+            }
+            this.ends = count == ends.length ? ends : Arrays.copyOf(ends, count);
+        }
+
+        private int compareTo(SrgClassKey o) {
+            if (this.packaged && o.packaged)
+                return this.value.compareTo(o.value);
+
+            int max = Math.min(this.ends.length, o.ends.length);
+            for (int i = 0; i < max; i++) {
+                int start1 = i == 0 ? 0 : this.ends[i - 1] + 1;
+                int start2 = i == 0 ? 0 : o.ends[i - 1] + 1;
+                int len1 = this.ends[i] - start1;
+                int len2 = o.ends[i] - start2;
+                if (len1 != len2)
+                    return len1 - len2;
+                for (int x = 0; x < len1; x++) {
+                    char c1 = this.value.charAt(start1 + x);
+                    char c2 = o.value.charAt(start2 + x);
+                    if (c1 != c2)
+                        return c1 - c2;
+                }
+            }
+            return Integer.compare(this.ends.length, o.ends.length);
+        }
+    }
+
     public static int compareCls(String cls1, String cls2) {
         if (cls1.indexOf('/') > 0 && cls2.indexOf('/') > 0)
             return cls1.compareTo(cls2);
@@ -694,20 +1114,160 @@ class InternalUtils {
         return end == 0 ? "" : str.substring(0, end);
     }
 
-    private static void swapFirst(String[] values) {
-        String tmp = values[0];
-        values[0] = values[1];
-        values[1] = tmp;
+    @Nullable
+    static String header(Format format, String... names) {
+        String prefix;
+        char sep;
+        switch (format) {
+            case TINY1: prefix = "v1";        sep = '\t'; break;
+            case TINY:  prefix = "tiny\t2\t0"; sep = '\t'; break;
+            case TSRG2: prefix = "tsrg2";     sep = ' ';  break;
+            default: return null;
+        }
+
+        StringBuilder buf = new StringBuilder(prefix);
+        for (String name : names)
+            buf.append(sep).append(name);
+        return buf.toString();
     }
 
-    private static String[] duplicate(String value, int count) {
-        String[] ret = new String[count];
-        Arrays.fill(ret, value);
-        return ret;
+    static BufferedWriter newWriter(Path path) throws IOException {
+        return newWriter(newOutputStream(path));
+    }
+
+    static OutputStream newOutputStream(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        OutputStream out = Files.newOutputStream(path);
+        try {
+            if (path.getFileName().toString().endsWith(".gz"))
+                out = new GZIPOutputStream(out);
+            return out;
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    static BufferedWriter newWriter(OutputStream out) {
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    /*
+     * Writes the header, then the lines of each block in order, a block being a package list or a class with its members.
+     * Ordered formats are written as the tree is walked, only the formats that are sorted by line have to be held in memory.
+     *
+     * With a pool the blocks are turned into text on it, and joined back in order, so the output is the same as without one.
+     * This holds every line in memory, even for ordered formats.
+     */
+    static void writeLines(Appendable out, Format format, @Nullable String header, List<Consumer<Consumer<String>>> blocks, @Nullable ForkJoinPool pool) throws IOException {
+        if (format == Format.BINARY)
+            throw new IllegalArgumentException("Can not write " + format.name() + " format as text");
+
+        if (header != null)
+            out.append(header).append('\n');
+
+        if (pool != null) {
+            writeLines(out, format, blocks, pool);
+            return;
+        }
+
+        if (format.isOrdered()) {
+            try {
+                Consumer<String> writer = line -> {
+                    try {
+                        out.append(line).append('\n');
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                };
+                for (Consumer<Consumer<String>> block : blocks)
+                    block.accept(writer);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return;
+        }
+
+        List<String> lines = new ArrayList<>();
+        for (Consumer<Consumer<String>> block : blocks)
+            block.accept(lines::add);
+        if (format == Format.SRG || format == Format.XSRG) {
+            List<SrgLineKey> keys = new ArrayList<>(lines.size());
+            for (String line : lines)
+                keys.add(new SrgLineKey(line));
+            writeSrg(out, keys);
+        } else {
+            lines.sort(Comparator.naturalOrder());
+            for (String line : lines)
+                out.append(line).append('\n');
+        }
+    }
+
+    private static void writeLines(Appendable out, Format format, List<Consumer<Consumer<String>>> blocks, ForkJoinPool pool) throws IOException {
+        // A few slices per thread, so one with large classes doesn't hold up the rest
+        int step = Math.max(1, (blocks.size() + pool.getParallelism() * 4 - 1) / (pool.getParallelism() * 4));
+        List<Callable<List<String>>> tasks = new ArrayList<>();
+        for (int start = 0; start < blocks.size(); start += step) {
+            List<Consumer<Consumer<String>>> slice = blocks.subList(start, Math.min(blocks.size(), start + step));
+            tasks.add(() -> {
+                List<String> ret = new ArrayList<>();
+                for (Consumer<Consumer<String>> block : slice)
+                    block.accept(ret::add);
+                return ret;
+            });
+        }
+        List<List<String>> parts = invokeAll(pool, tasks);
+
+        if (format.isOrdered()) {
+            for (List<String> part : parts) {
+                for (String line : part)
+                    out.append(line).append('\n');
+            }
+        } else if (format == Format.SRG || format == Format.XSRG) {
+            List<Callable<List<SrgLineKey>>> keyTasks = new ArrayList<>();
+            for (List<String> part : parts) {
+                keyTasks.add(() -> {
+                    List<SrgLineKey> ret = new ArrayList<>(part.size());
+                    for (String line : part)
+                        ret.add(new SrgLineKey(line));
+                    return ret;
+                });
+            }
+            List<SrgLineKey> keys = new ArrayList<>();
+            for (List<SrgLineKey> part : invokeAll(pool, keyTasks))
+                keys.addAll(part);
+            writeSrg(out, keys);
+        } else {
+            int size = 0;
+            for (List<String> part : parts)
+                size += part.size();
+            String[] lines = new String[size];
+            int idx = 0;
+            for (List<String> part : parts) {
+                for (String line : part)
+                    lines[idx++] = line;
+            }
+            // Sorted from inside the pool so the sort forks onto it, equal strings are identical so the order is deterministic
+            invokeAll(pool, Collections.singletonList(() -> {
+                Arrays.parallelSort(lines);
+                return null;
+            }));
+            for (String line : lines)
+                out.append(line).append('\n');
+        }
+    }
+
+    /*
+     * compareLines is not a total order when classes in the default package are mixed with ones in packages,
+     * so a parallel merge could order lines differently than the single threaded sort, the keys are always sorted on one thread.
+     */
+    private static void writeSrg(Appendable out, List<SrgLineKey> keys) throws IOException {
+        keys.sort(null);
+        for (SrgLineKey key : keys)
+            out.append(key.line).append('\n');
     }
 
-    enum Element{ PACKAGE, CLASS, FIELD, METHOD, PARAMETER }
-    static void writeMeta(Format format, List<String> lines, Element element, Map<String, String> meta) {
+    static void writeMeta(Format format, Consumer<String> lines, Element element, Map<String, String> meta) {
         int indent = 0;
         switch (element) {
             case PACKAGE:
@@ -729,14 +1289,14 @@ class InternalUtils {
                 if (comment != null) {
                     char[] prefix = new char[indent];
                     Arrays.fill(prefix, '\t');
-                    lines.add(new String(prefix) + "c\t" + escapeTinyString(comment));
+                    lines.accept(new String(prefix) + "c\t" + escapeTinyString(comment));
                 }
                 break;
             case TSRG2:
                 if (meta.containsKey("is_static")) {
                     char[] prefix = new char[indent];
                     Arrays.fill(prefix, '\t');
-                    lines.add(new String(prefix) + "static");
+                    lines.accept(new String(prefix) + "static");
                 }
                 break;
         }
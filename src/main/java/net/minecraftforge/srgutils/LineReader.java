@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jetbrains.annotations.Nullable;
+
+/*
+ * Splits UTF-8 encoded input into lines without decoding them, handing each one out through a shared Tokenizer.
+ * Lines are terminated by \n, \r or \r\n, the same as BufferedReader.readLine.
+ * When reading a stream, only the line currently being parsed is kept in memory, the buffer grows if a single line does not fit in it.
+ * When reading a buffer that already holds the whole input, it can be split into several readers at line boundaries.
+ */
+class LineReader {
+    @Nullable
+    private final InputStream in;
+    private final Tokenizer line = new Tokenizer();
+    private byte[] data;
+    private ByteBuffer buf;
+    private int pos;
+    private int limit;
+    private int lineStart;
+    private int lineEnd;
+    private boolean eof;
+    private boolean skipLF;
+    private boolean pushedBack;
+    private int lineNumber; // Only counted for streams, buffers count when asked
+
+    LineReader(InputStream in) {
+        this.in = in;
+        this.data = new byte[1 << 16];
+        this.buf = ByteBuffer.wrap(this.data);
+    }
+
+    /*
+     * Reads the lines in [start, end) of a buffer holding the whole input.
+     */
+    LineReader(ByteBuffer buf, int start, int end) {
+        this.in = null;
+        this.buf = buf;
+        this.pos = start;
+        this.limit = end;
+        this.eof = true;
+    }
+
+    /*
+     * Offset of the last line returned by next().
+     */
+    int lineStart() {
+        return this.lineStart;
+    }
+
+    /*
+     * Line number of the last line returned by next(), counting from 1 and including empty lines, for error messages.
+     * Readers over a buffer count from the start of the buffer, so slices and split readers give the same numbers as reading the whole input.
+     * They only count when asked, as it is only needed once a line turns out to be invalid.
+     */
+    int lineNumber() {
+        if (this.in != null)
+            return this.lineNumber;
+
+        int ret = 1;
+        for (int x = 0; x < this.lineStart; x++) {
+            byte b = this.buf.get(x);
+            if (b == '\r' && x + 1 < this.lineStart && this.buf.get(x + 1) == '\n')
+                x++;
+            if (b == '\n' || b == '\r')
+                ret++;
+        }
+        return ret;
+    }
+
+    /*
+     * Offset of the next unread line.
+     */
+    int position() {
+        return this.pushedBack ? this.lineStart : this.pos;
+    }
+
+    int end() {
+        return this.limit;
+    }
+
+    /*
+     * A reader over [start, end) of the same buffer, only works if canSplit.
+     */
+    LineReader slice(int start, int end) {
+        if (!canSplit())
+            throw new IllegalStateException("Can not slice a stream");
+        return new LineReader(this.buf, start, end);
+    }
+
+    /*
+     * If the rest of the input is in memory, so split and slice can be used.
+     */
+    boolean canSplit() {
+        return this.in == null;
+    }
+
+    /*
+     * Splits the unread part of the input into at most count readers, each at least minSize bytes and starting on a new line.
+     */
+    List<LineReader> split(int count, int minSize) {
+        if (!canSplit())
+            throw new IllegalStateException("Can not split a stream");
+
+        int start = position();
+        int size = Math.max(minSize, (this.limit - start + count - 1) / count);
+        List<LineReader> ret = new ArrayList<>();
+        while (start < this.limit) {
+            int end = this.limit - start <= size ? this.limit : lineBoundary(start + size);
+            ret.add(slice(start, end));
+            start = end;
+        }
+        return ret;
+    }
+
+    private int lineBoundary(int from) {
+        for (int x = from; x < this.limit; x++) {
+            byte b = this.buf.get(x);
+            if (b == '\n')
+                return x + 1;
+            if (b == '\r')
+                return x + 1 < this.limit && this.buf.get(x + 1) == '\n' ? x + 2 : x + 1;
+        }
+        return this.limit;
+    }
+
+    /*
+     * If the unread input starts with the given bytes, only works before any lines have been read.
+     */
+    boolean startsWith(byte[] prefix) throws IOException {
+        while (!this.eof && this.limit - this.pos < prefix.length)
+            fill();
+        if (this.limit - this.pos < prefix.length)
+            return false;
+        for (int x = 0; x < prefix.length; x++) {
+            if (this.buf.get(this.pos + x) != prefix[x])
+                return false;
+        }
+        return true;
+    }
+
+    /*
+     * Consumes the rest of the input, and returns it as a buffer. Streams are read into memory first.
+     */
+    ByteBuffer remaining() throws IOException {
+        while (!this.eof)
+            fill();
+
+        ByteBuffer ret = this.buf.duplicate();
+        ret.limit(this.limit);
+        ret.position(position());
+        this.pos = this.limit;
+        this.pushedBack = false;
+        return ret.slice();
+    }
+
+    /*
+     * Returns the next non-empty line, or null at the end of the input.
+     * If strip is set, comments and trailing whitespace are removed first.
+     */
+    @Nullable
+    Tokenizer next(boolean strip) throws IOException {
+        if (this.pushedBack) {
+            this.pushedBack = false;
+            this.line.reset(this.buf, this.lineStart, this.lineEnd);
+            if (strip)
+                this.line.stripComment();
+            if (!this.line.isEmpty())
+                return this.line;
+        }
+
+        while (readLine()) {
+            this.line.reset(this.buf, this.lineStart, this.lineEnd);
+            if (strip)
+                this.line.stripComment();
+            if (!this.line.isEmpty())
+                return this.line;
+        }
+        return null;
+    }
+
+    /*
+     * Returns the first line that is not empty once comments are removed, without consuming it.
+     * The next call to next() will return the same line again.
+     */
+    @Nullable
+    Tokenizer peek() throws IOException {
+        Tokenizer ret = next(true);
+        if (ret == null)
+            return null;
+        pushBack();
+        // Hand out the raw line, the format is detected from it the same way it's read.
+        ret.reset(this.buf, this.lineStart, this.lineEnd);
+        return ret;
+    }
+
+    /*
+     * Makes the next call to next() return the last line again.
+     */
+    void pushBack() {
+        this.pushedBack = true;
+    }
+
+    private boolean readLine() throws IOException {
+        while (true) {
+            for (int x = this.pos; x < this.limit; x++) {
+                byte b = this.buf.get(x);
+                if (this.skipLF) {
+                    this.skipLF = false;
+                    if (b == '\n') {
+                        this.pos = x + 1;
+                        continue;
+                    }
+                }
+                if (b == '\n' || b == '\r') {
+                    this.lineStart = this.pos;
+                    this.lineEnd = x;
+                    this.pos = x + 1;
+                    this.skipLF = b == '\r';
+                    this.lineNumber++;
+                    return true;
+                }
+            }
+
+            if (this.eof) {
+                if (this.pos == this.limit)
+                    return false;
+                this.lineStart = this.pos;
+                this.lineEnd = this.limit;
+                this.pos = this.limit;
+                this.lineNumber++;
+                return true;
+            }
+
+            fill();
+        }
+    }
+
+    private void fill() throws IOException {
+        // Keep the partial line we're in the middle of, drop everything before it.
+        int keep = this.limit - this.pos;
+        if (this.pos == 0 && keep == this.data.length) {
+            byte[] tmp = new byte[this.data.length * 2];
+            System.arraycopy(this.data, 0, tmp, 0, keep);
+            this.data = tmp;
+            this.buf = ByteBuffer.wrap(this.data);
+        } else if (this.pos != 0) {
+            System.arraycopy(this.data, this.pos, this.data, 0, keep);
+        }
+        this.pos = 0;
+        this.limit = keep;
+
+        int read = this.in.read(this.data, this.limit, this.data.length - this.limit);
+        if (read == -1)
+            this.eof = true;
+        else
+            this.limit += read;
+    }
+}
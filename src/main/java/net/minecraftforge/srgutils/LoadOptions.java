@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jetbrains.annotations.Nullable;
+
+/*
+ * Controls how IMappingFile.load and INamedMappingFile.load read a file.
+ */
+public final class LoadOptions {
+    private static final LoadOptions DEFAULT = new LoadOptions(null, false, false);
+    private static final LoadOptions LAZY = new LoadOptions(null, true, false);
+    private static final LoadOptions COMPACT = new LoadOptions(null, false, true);
+
+    @Nullable
+    private final ForkJoinPool pool;
+    private final boolean lazy;
+    private final boolean compact;
+
+    private LoadOptions(@Nullable ForkJoinPool pool, boolean lazy, boolean compact) {
+        this.pool = pool;
+        this.lazy = lazy;
+        this.compact = compact;
+    }
+
+    /*
+     * Reads the file on the calling thread, the same as loading without options.
+     */
+    public static LoadOptions defaults() {
+        return DEFAULT;
+    }
+
+    /*
+     * Splits the file into chunks which are read on the given pool.
+     * Only formats where every line names its owner can be split, that is SRG, XSRG, CSRG and Tiny v1, anything else is read normally.
+     * The whole file has to be in memory to be split, streams are read into a buffer first, files loaded from a Path are mapped.
+     * The result is the same as reading it on a single thread.
+     */
+    public static LoadOptions parallel(ForkJoinPool pool) {
+        return new LoadOptions(Objects.requireNonNull(pool, "pool"), false, false);
+    }
+
+    /*
+     * Only finds where each class starts when the file is opened, and reads a class the first time it is looked up.
+     * This works for the formats where members are listed under their class, TSRG, CSRG, TSRG2, Tiny v2 and ProGuard, anything else is read normally.
+     * Looking up a few classes in a large file is cheap, listing every class reads the rest of the file.
+     * The file is kept in memory until every class has been read, and errors in a class are thrown as UncheckedIOException when it is read.
+     * Uncompressed files loaded from a Path are memory mapped, and the mapping is only released once every class has been read and the buffer is garbage collected.
+     * Until then Windows will not let the file be deleted or replaced, so load from a File or an InputStream instead if the file may be rewritten while it is in use.
+     */
+    public static LoadOptions lazy() {
+        return LAZY;
+    }
+
+    /*
+     * Stores the names of an INamedMappingFile in a shared pool, each distinct name once, and only creates a String when one is asked for.
+     * The views returned by getMap, and files loaded through IMappingFile.load, read the pooled names too, so they benefit from it as well.
+     * This uses a lot less memory when many files are kept loaded, at the cost of decoding a name when it is asked for. The last few thousand decoded names
+     * are kept, so remapping the same classes repeatedly rarely decodes, but walking every node of a large file decodes most of them each time.
+     */
+    public static LoadOptions compact() {
+        return COMPACT;
+    }
+
+    @Nullable
+    ForkJoinPool getPool() {
+        return this.pool;
+    }
+
+    boolean isLazy() {
+        return this.lazy;
+    }
+
+    boolean isCompact() {
+        return this.compact;
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jetbrains.annotations.Nullable;
+
+/*
+ * Builds the packages and classes visited while reading a run of lines, every loader reads into one through IMappingVisitor.
+ * The nodes belong to the owning file, but are only added to it once the chunks are merged.
+ * In the unordered formats, SRG, XSRG, CSRG and Tiny v1, every line names its owner, so the file can be split into chunks that are read on their own.
+ *
+ * A class takes its names from the last time it is visited, or if it is only ever referenced by member lines, from the first reference.
+ * Visiting a class again keeps the members already read for it, so the result is the same no matter how the file is split up.
+ */
+class MappingChunk implements IMappingVisitor {
+    private final NamedMappingFile owner;
+    private final Map<String, NamedMappingFile.Package> packages = new HashMap<>();
+    private final Map<String, NamedMappingFile.Cls> classes = new LinkedHashMap<>();
+    private final Set<String> declared = new HashSet<>();
+    @Nullable private NamedMappingFile.Package pkg;
+    @Nullable private NamedMappingFile.Cls cls;
+    @Nullable private IMappingBuilder.IField field;
+    @Nullable private IMappingBuilder.IMethod method;
+    @Nullable private IMappingBuilder.IParameter param;
+
+    MappingChunk(NamedMappingFile owner) {
+        this.owner = owner;
+    }
+
+    @Override
+    public void visitHeader(String... names) {
+        // The owning file is created with the names from the header
+    }
+
+    @Override
+    public void visitPackage(String... names) {
+        this.pkg = this.owner.newPackage(names);
+        this.packages.put(names[0], this.pkg);
+    }
+
+    @Override
+    public void visitClass(String... names) {
+        NamedMappingFile.Cls existing = this.classes.get(names[0]);
+        this.declared.add(names[0]);
+        this.method = null;
+        if (existing != null && Arrays.equals(existing.getNames(), names)) {
+            this.cls = existing;
+            return;
+        }
+
+        this.cls = this.owner.newClass(names);
+        if (existing != null)
+            this.cls.merge(existing, true);
+        this.classes.put(names[0], this.cls);
+    }
+
+    @Override
+    public void visitClassReference(String... names) {
+        this.method = null;
+        this.cls = this.classes.get(names[0]);
+        if (this.cls == null) {
+            // Names the line didn't give us stay the same as the original
+            for (int x = 1; x < names.length; x++) {
+                if (names[x] == null)
+                    names[x] = names[0];
+            }
+            this.cls = this.owner.newClass(names);
+            this.classes.put(names[0], this.cls);
+        }
+    }
+
+    @Override
+    public void visitField(@Nullable String desc, String... names) {
+        this.field = current().field(names);
+        if (desc != null)
+            this.field.descriptor(desc);
+    }
+
+    @Override
+    public void visitMethod(String desc, String... names) {
+        this.method = current().method(desc, names);
+    }
+
+    @Override
+    public void visitParameter(int index, String... names) {
+        if (this.method == null)
+            throw new IllegalStateException("Parameter visited outside of a method: " + index);
+        this.param = this.method.parameter(index, names);
+    }
+
+    @Override
+    public void visitMeta(Element element, String key, String value) {
+        switch (element) {
+            case PACKAGE:   if (this.pkg    != null) this.pkg.meta(key, value);    break;
+            case CLASS:     if (this.cls    != null) this.cls.meta(key, value);    break;
+            case FIELD:     if (this.field  != null) this.field.meta(key, value);  break;
+            case METHOD:    if (this.method != null) this.method.meta(key, value); break;
+            case PARAMETER: if (this.param  != null) this.param.meta(key, value);  break;
+            default: throw new IllegalArgumentException("Unknown element: " + element);
+        }
+    }
+
+    private NamedMappingFile.Cls current() {
+        if (this.cls == null)
+            throw new IllegalStateException("Member visited outside of a class");
+        return this.cls;
+    }
+
+    /*
+     * Adds the chunks to their file in order, as if they had been read as one.
+     * Classes that are spread over several chunks are combined on the pool if there is one.
+     */
+    static void merge(NamedMappingFile file, List<MappingChunk> chunks, @Nullable ForkJoinPool pool) throws IOException {
+        for (MappingChunk chunk : chunks)
+            chunk.packages.values().forEach(file::putPackage);
+
+        if (chunks.size() == 1) {
+            chunks.get(0).classes.values().forEach(file::putClass);
+            return;
+        }
+
+        // Gather the pieces of each class, in the order the chunks were read
+        Map<String, List<MappingChunk>> pieces = new LinkedHashMap<>();
+        for (MappingChunk chunk : chunks) {
+            for (String name : chunk.classes.keySet())
+                pieces.computeIfAbsent(name, k -> new ArrayList<>(2)).add(chunk);
+        }
+
+        List<Map.Entry<String, List<MappingChunk>>> entries = new ArrayList<>(pieces.entrySet());
+        NamedMappingFile.Cls[] folded = new NamedMappingFile.Cls[entries.size()];
+        if (pool == null) {
+            for (int x = 0; x < folded.length; x++)
+                folded[x] = fold(entries.get(x).getKey(), entries.get(x).getValue());
+        } else {
+            int step = Math.max(1, (folded.length + pool.getParallelism() * 4 - 1) / (pool.getParallelism() * 4));
+            List<Callable<Void>> tasks = new ArrayList<>();
+            for (int start = 0; start < folded.length; start += step) {
+                int from = start;
+                int to = Math.min(folded.length, start + step);
+                tasks.add(() -> {
+                    for (int x = from; x < to; x++)
+                        folded[x] = fold(entries.get(x).getKey(), entries.get(x).getValue());
+                    return null;
+                });
+            }
+            InternalUtils.invokeAll(pool, tasks);
+        }
+
+        for (NamedMappingFile.Cls cls : folded)
+            file.putClass(cls);
+    }
+
+    private static NamedMappingFile.Cls fold(String name, List<MappingChunk> chunks) {
+        if (chunks.size() == 1)
+            return chunks.get(0).classes.get(name);
+
+        // Add the pieces in the order they were read, so members keep the order reading the whole file gives them, and later lines win
+        NamedMappingFile.Cls ret = chunks.get(0).classes.get(name);
+        String[] names = ret.getNames();
+        for (int x = 1; x < chunks.size(); x++) {
+            MappingChunk chunk = chunks.get(x);
+            NamedMappingFile.Cls cls = chunk.classes.get(name);
+            ret.merge(cls, true);
+            if (chunk.declared.contains(name))
+                names = cls.getNames();
+        }
+
+        // The last declaration names the class, if there is none the first reference does. Renaming copies the class the same way visitClass does.
+        if (!Arrays.equals(ret.getNames(), names)) {
+            NamedMappingFile.Cls renamed = chunks.get(0).owner.newClass(names);
+            renamed.merge(ret, true);
+            ret = renamed;
+        }
+        return ret;
+    }
+}
@@ -7,211 +7,420 @@ package net.minecraftforge.srgutils;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.zip.GZIPOutputStream;
-
-import net.minecraftforge.srgutils.InternalUtils.Element;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+import net.minecraftforge.srgutils.IMappingVisitor.Element;
 import org.jetbrains.annotations.Nullable;
 
-import static net.minecraftforge.srgutils.InternalUtils.Element.*;
+import static net.minecraftforge.srgutils.IMappingVisitor.Element.*;
 import static net.minecraftforge.srgutils.InternalUtils.*;
 
 class MappingFile implements IMappingFile {
-    private Map<String, Package> packages = new HashMap<>();
-    private Collection<Package> packagesView = Collections.unmodifiableCollection(packages.values());
-    private Map<String, Cls> classes = new HashMap<>();
-    private Collection<Cls> classesView = Collections.unmodifiableCollection(classes.values());
-    private final Map<String, String> cache = new ConcurrentHashMap<>();
-    static final Pattern DESC = Pattern.compile("L(?<cls>[^;]+);");
-
-    MappingFile(){}
-    MappingFile(NamedMappingFile source, int from, int to) {
-        source.getPackages().forEach(pkg -> addPackage(pkg.getName(from), pkg.getName(to), pkg.meta));
-        source.getClasses().forEach(cls -> {
-            Cls c = addClass(cls.getName(from), cls.getName(to), cls.meta);
-            cls.getFields().forEach(fld -> c.addField(fld.getName(from), fld.getName(to), fld.getDescriptor(from), fld.meta));
-            cls.getMethods().forEach(mtd -> {
-                Cls.Method m = c.addMethod(mtd.getName(from), mtd.getDescriptor(from), mtd.getName(to), mtd.meta);
-                mtd.getParameters().forEach(par -> m.addParameter(par.getIndex(), par.getName(from), par.getName(to), par.meta));
-            });
-        });
+    private static final int MIN_BATCH_CHUNK = 1 << 12; // Smaller chunks would spend more on scheduling and repeat lookups than they save
+
+    private volatile RemapCache<String> cache = new RemapCache<>(RemapCache.DEFAULT_CAPACITY);
+    private final Map<String, String> descCache = new ConcurrentHashMap<>(); // Members with the same descriptor share the mapped one
+    private final NamedMappingFile named;
+    private final int fromI;
+    private final int toI;
+
+    /*
+     * A view of two columns of a named file, nothing is copied so it costs next to nothing to create.
+     * Nodes are made as they are asked for and read their names straight from the named file's nodes, so they are not kept. The same node is not always the same object,
+     * but nodes made from the same named node through the same view are equal, so they still work in sets and as map keys.
+     *
+     * Every MappingFile is a view. rename, chain and merge build a new two column named file to view, and reverse views the same file from the other column,
+     * so both directions share the named file's indexes.
+     */
+    MappingFile(NamedMappingFile named, int from, int to) {
+        this.named = named;
+        this.fromI = from;
+        this.toI = to;
+    }
+
+    private Package view(NamedMappingFile.Package pkg) {
+        return new Package(pkg, pkg.getName(fromI), pkg.getName(toI), pkg.getMeta());
+    }
+
+    private Cls view(NamedMappingFile.Cls cls) {
+        return new Cls(cls, cls.getName(fromI), cls.getName(toI), cls.getMeta());
+    }
+
+    // A read only collection of the view nodes for some named nodes, made as it is iterated
+    private static <T, R> Collection<R> views(Collection<T> values, Function<T, R> view) {
+        return new AbstractCollection<R>() {
+            @Override
+            public int size() {
+                return values.size();
+            }
+
+            @Override
+            public Iterator<R> iterator() {
+                Iterator<T> itr = values.iterator();
+                return new Iterator<R>() {
+                    @Override
+                    public boolean hasNext() {
+                        return itr.hasNext();
+                    }
+
+                    @Override
+                    public R next() {
+                        return view.apply(itr.next());
+                    }
+                };
+            }
+        };
     }
 
     @Override
     public Collection<Package> getPackages() {
-        return this.packagesView;
+        return views(this.named.getPackages(fromI), this::view);
     }
 
     @Override
     @Nullable
     public Package getPackage(String original) {
-        return packages.get(original);
-    }
-
-    private Package addPackage(String original, String mapped, Map<String, String> metadata) {
-        return packages.put(original, new Package(original, mapped, metadata));
+        NamedMappingFile.Package pkg = this.named.getPackage(fromI, original);
+        return pkg == null ? null : view(pkg);
     }
 
     @Override
     public Collection<Cls> getClasses() {
-        return this.classesView;
+        return views(this.named.getClasses(fromI), this::view);
     }
 
     @Override
     @Nullable
     public Cls getClass(String original) {
-        return classes.get(original);
+        NamedMappingFile.Cls cls = this.named.getClass(fromI, original);
+        return cls == null ? null : view(cls);
     }
 
-    private Cls addClass(String original, String mapped, Map<String, String> metadata) {
-        return retPut(this.classes, original, new Cls(original, mapped, metadata));
+    @Override
+    @Nullable
+    public Cls getClassByMapped(String mapped) {
+        NamedMappingFile.Cls cls = this.named.getClass(toI, mapped);
+        return cls == null ? null : view(cls);
     }
 
     @Override
     public String remapPackage(String pkg) {
-        //TODO: Package bulk moves? Issue: moving default package will move EVERYTHING, it's what its meant to do but we shouldn't.
-        Package ipkg = packages.get(pkg);
-        return ipkg == null ? pkg : ipkg.getMapped();
+        return this.named.remapPackage(fromI, toI, pkg);
     }
 
     @Override
     public String remapClass(String cls) {
+        RemapCache<String> cache = this.cache;
         String ret = cache.get(cls);
         if (ret == null) {
-            Cls _cls = classes.get(cls);
-            if (_cls == null) {
-                int idx = cls.lastIndexOf('$');
-                if (idx != -1)
-                    ret = remapClass(cls.substring(0, idx)) + '$' + cls.substring(idx + 1);
-                else
-                    ret = cls;
-            } else
-                ret = _cls.getMapped();
-            //TODO: Package bulk moves? Issue: moving default package will move EVERYTHING, it's what its meant to do but we shouldn't.
+            ret = this.named.remapClass(fromI, toI, cls);
             cache.put(cls, ret);
         }
         return ret;
     }
 
+    @Override
+    public void setRemapCacheSize(int size) {
+        this.cache = new RemapCache<>(size);
+    }
+
+    @Override
+    public CacheStats getRemapCacheStats() {
+        return this.cache.getStats();
+    }
+
     @Override
     public String remapDescriptor(String desc) {
-        Matcher matcher = DESC.matcher(desc);
-        StringBuffer buf = new StringBuffer();
-        while (matcher.find())
-            matcher.appendReplacement(buf, Matcher.quoteReplacement("L" + remapClass(matcher.group("cls")) + ";"));
-        matcher.appendTail(buf);
-        return buf.toString();
+        return InternalUtils.remapDescriptor(desc, this::remapClass);
+    }
+
+    @Override
+    public void remapClasses(String[] in, String[] out, @Nullable ForkJoinPool pool) {
+        if (out.length < in.length)
+            throw new IllegalArgumentException("Output array is shorter than the input: " + out.length + " < " + in.length);
+        remapBatch(in, out, false, pool);
+    }
+
+    @Override
+    public List<String> remapDescriptors(List<String> descs, @Nullable ForkJoinPool pool) {
+        String[] ret = descs.toArray(new String[0]);
+        remapBatch(ret, ret, true, pool);
+        return Arrays.asList(ret);
+    }
+
+    private void remapBatch(String[] in, String[] out, boolean descriptors, @Nullable ForkJoinPool pool) {
+        if (pool == null || in.length < MIN_BATCH_CHUNK * 2) {
+            remapBatch(in, out, 0, in.length, descriptors);
+            return;
+        }
+
+        // Each chunk dedupes on its own, so they share nothing but the remap cache
+        int chunks = Math.min(pool.getParallelism() * 4, in.length / MIN_BATCH_CHUNK);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chunks);
+        for (int x = 0; x < chunks; x++) {
+            int start = (int)((long)in.length * x / chunks);
+            int end = (int)((long)in.length * (x + 1) / chunks);
+            tasks.add(pool.submit(() -> remapBatch(in, out, start, end, descriptors)));
+        }
+        for (ForkJoinTask<?> task : tasks)
+            task.join();
+    }
+
+    private void remapBatch(String[] in, String[] out, int start, int end, boolean descriptors) {
+        // Plain maps for the length of the batch, cheaper than going through the shared cache for every repeat
+        Map<String, String> classes = new HashMap<>();
+        UnaryOperator<String> remapper = cls -> {
+            String ret = classes.get(cls);
+            if (ret == null) {
+                ret = remapClass(cls);
+                classes.put(cls, ret);
+            }
+            return ret;
+        };
+
+        if (!descriptors) {
+            for (int x = start; x < end; x++)
+                out[x] = remapper.apply(in[x]);
+            return;
+        }
+
+        Map<String, String> descs = new HashMap<>();
+        for (int x = start; x < end; x++) {
+            String desc = in[x];
+            String ret = descs.get(desc);
+            if (ret == null) {
+                ret = InternalUtils.remapDescriptor(desc, remapper);
+                descs.put(desc, ret);
+            }
+            out[x] = ret;
+        }
+    }
+
+    // Only used for our own members, so unlike remapDescriptor the cache can't grow past the descriptors in this file
+    private String remapMemberDescriptor(String desc) {
+        String ret = descCache.get(desc);
+        if (ret == null)
+            ret = descCache.computeIfAbsent(desc, this::remapDescriptor);
+        return ret;
     }
 
     @Override
     public void write(Path path, Format format, boolean reversed) throws IOException {
-        List<String> lines = new ArrayList<>();
-        Comparator<INode> sort = reversed ? (a,b) -> a.getMapped().compareTo(b.getMapped()) : (a,b) -> a.getOriginal().compareTo(b.getOriginal());
+        write(path, format, reversed, WriteOptions.defaults());
+    }
 
-        getPackages().stream().sorted(sort).forEachOrdered(pkg ->
-            write(lines, format, reversed, PACKAGE, pkg)
-        );
-        getClasses().stream().sorted(sort).forEachOrdered(cls -> {
-            write(lines, format, reversed, CLASS, cls);
+    @Override
+    public void write(Path path, Format format, boolean reversed, WriteOptions options) throws IOException {
+        if (format == Format.BINARY) {
+            try (OutputStream out = newOutputStream(path)) {
+                new WriteOrder(reversed).writeBinary(out);
+            }
+            return;
+        }
+
+        try (BufferedWriter writer = newWriter(path)) {
+            write(writer, format, reversed, options.getPool());
+        }
+    }
+
+    @Override
+    public void write(OutputStream out, Format format, boolean reversed) throws IOException {
+        if (format == Format.BINARY) {
+            new WriteOrder(reversed).writeBinary(out);
+            out.flush();
+            return;
+        }
 
-            cls.getFields().stream().sorted(sort).forEachOrdered(fld ->
-                write(lines, format, reversed, FIELD, fld)
-            );
+        BufferedWriter writer = newWriter(out);
+        write(writer, format, reversed, null);
+        writer.flush();
+    }
+
+    @Override
+    public void write(Appendable out, Format format, boolean reversed) throws IOException {
+        write(out, format, reversed, null);
+    }
+
+    private void write(Appendable out, Format format, boolean reversed, @Nullable ForkJoinPool pool) throws IOException {
+        writeLines(out, format, header(format, "left", "right"), blocks(format, reversed), pool);
+    }
+
+    private List<Consumer<Consumer<String>>> blocks(Format format, boolean reversed) {
+        return new WriteOrder(reversed).blocks(format);
+    }
 
-            cls.getMethods().stream().sorted(sort).forEachOrdered(mtd -> {
-                write(lines, format, reversed, METHOD, mtd);
+    @Override
+    public void write(Collection<WriteTarget> targets, WriteOptions options) throws IOException {
+        // Each direction is sorted once, and shared by every target written in it
+        WriteOrder forward = null;
+        WriteOrder reverse = null;
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (WriteTarget target : targets) {
+            WriteOrder order;
+            if (target.isReversed())
+                order = reverse == null ? reverse = new WriteOrder(true) : reverse;
+            else
+                order = forward == null ? forward = new WriteOrder(false) : forward;
+
+            tasks.add(() -> {
+                if (target.getFormat() == Format.BINARY) {
+                    try (OutputStream out = newOutputStream(target.getPath())) {
+                        order.writeBinary(out);
+                    }
+                    return null;
+                }
 
-                mtd.getParameters().stream().sorted((a,b) -> a.getIndex() - b.getIndex()).forEachOrdered(par ->
-                    write(lines, format, reversed, PARAMETER, par)
-                );
+                try (BufferedWriter writer = newWriter(target.getPath())) {
+                    writeLines(writer, target.getFormat(), header(target.getFormat(), "left", "right"), order.blocks(target.getFormat()), null);
+                }
+                return null;
             });
-        });
+        }
 
-        lines.removeIf(Objects::isNull);
-
-        if (!format.isOrdered()) {
-            Comparator<String> linesort = (format == Format.SRG || format == Format.XSRG) ? InternalUtils::compareLines : (o1, o2) -> o1.compareTo(o2);
-            lines.sort(linesort);
-        }
-
-        switch (format) {
-            case TINY1:
-                lines.add(0, "v1\tleft\tright");
-                break;
-            case TINY:
-                lines.add(0, "tiny\t2\t0\tleft\tright");
-                break;
-            case TSRG2:
-                lines.add(0, "tsrg2 left right");
-                break;
-            default:
-                break;
-        }
-
-        Files.createDirectories(path.getParent());
-        try (OutputStream fos = Files.newOutputStream(path)) {
-            OutputStream out = fos;
-            if (path.getFileName().toString().endsWith(".gz"))
-                out = new GZIPOutputStream(out);
-            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
-                for (String line : lines) {
-                    writer.write(line);
-                    writer.write('\n');
+        ForkJoinPool pool = options.getPool();
+        if (pool != null) {
+            invokeAll(pool, tasks);
+        } else {
+            for (Callable<Void> task : tasks) {
+                try {
+                    task.call();
+                } catch (IOException | RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException(e);
                 }
             }
         }
     }
 
-    private static void write(List<String> lines, Format format, boolean reversed, Element element, INode node) {
+    /*
+     * The packages, then each class with its members, in the order they are written.
+     * Members are sorted the first time their class is written, so several writes in the same direction can share one.
+     */
+    private class WriteOrder {
+        private final boolean reversed;
+        private final Comparator<INode> sort;
+        private final Comparator<Cls.Method> methodSort; // Overloads share a name, so they are ordered by descriptor after it
+        private final List<Package> packages;
+        private final List<Cls> classes;
+        private final AtomicReferenceArray<INode[]> members;
+
+        private WriteOrder(boolean reversed) {
+            this.reversed = reversed;
+            this.sort = reversed ? (a,b) -> a.getMapped().compareTo(b.getMapped()) : (a,b) -> a.getOriginal().compareTo(b.getOriginal());
+            Comparator<Cls.Method> byDesc = reversed ? (a,b) -> a.getMappedDescriptor().compareTo(b.getMappedDescriptor()) : (a,b) -> a.getDescriptor().compareTo(b.getDescriptor());
+            this.methodSort = (a,b) -> {
+                int ret = this.sort.compare(a, b);
+                return ret != 0 ? ret : byDesc.compare(a, b);
+            };
+            this.packages = getPackages().stream().sorted(sort).collect(Collectors.toList());
+            this.classes = getClasses().stream().sorted(sort).collect(Collectors.toList());
+            this.members = new AtomicReferenceArray<>(this.classes.size());
+        }
+
+        private List<Consumer<Consumer<String>>> blocks(Format format) {
+            List<Consumer<Consumer<String>>> ret = new ArrayList<>(this.classes.size() + 1);
+            ret.add(lines -> this.packages.forEach(pkg -> write(lines, format, reversed, PACKAGE, pkg)));
+            for (int x = 0; x < this.classes.size(); x++) {
+                int idx = x;
+                ret.add(lines -> {
+                    write(lines, format, reversed, CLASS, this.classes.get(idx));
+                    for (INode node : members(idx))
+                        write(lines, format, reversed, node instanceof Cls.Field ? FIELD : node instanceof Cls.Method ? METHOD : PARAMETER, node);
+                });
+            }
+            return ret;
+        }
+
+        private void writeBinary(OutputStream out) throws IOException {
+            BinaryMappings.Writer writer = new BinaryMappings.Writer();
+            writer.visitHeader("left", "right");
+            for (Package pkg : this.packages)
+                visit(writer, PACKAGE, pkg);
+            for (int x = 0; x < this.classes.size(); x++) {
+                visit(writer, CLASS, this.classes.get(x));
+                for (INode node : members(x))
+                    visit(writer, node instanceof Cls.Field ? FIELD : node instanceof Cls.Method ? METHOD : PARAMETER, node);
+            }
+            writer.visitEnd();
+            writer.writeTo(out);
+        }
+
+        private void visit(IMappingVisitor visitor, Element element, INode node) {
+            String[] names = reversed ? new String[] { node.getMapped(), node.getOriginal() } : new String[] { node.getOriginal(), node.getMapped() };
+            switch (element) {
+                case PACKAGE:   visitor.visitPackage(names); break;
+                case CLASS:     visitor.visitClass(names); break;
+                case FIELD:
+                    Cls.Field fld = (Cls.Field)node;
+                    visitor.visitField(reversed ? fld.getMappedDescriptor() : fld.getDescriptor(), names);
+                    break;
+                case METHOD:
+                    Cls.Method mtd = (Cls.Method)node;
+                    visitor.visitMethod(reversed ? mtd.getMappedDescriptor() : mtd.getDescriptor(), names);
+                    break;
+                case PARAMETER: visitor.visitParameter(((IParameter)node).getIndex(), names); break;
+                default: throw new IllegalArgumentException("Unknown element: " + element);
+            }
+            node.getMetadata().forEach((k, v) -> visitor.visitMeta(element, k, v));
+        }
+
+        // Writes running at the same time may both sort a class, they get the same result so either can be kept
+        private INode[] members(int idx) {
+            INode[] ret = this.members.get(idx);
+            if (ret == null) {
+                Cls cls = this.classes.get(idx);
+                List<INode> nodes = new ArrayList<>();
+                cls.getFields().stream().sorted(sort).forEachOrdered(nodes::add);
+                cls.getMethods().stream().sorted(methodSort).forEachOrdered(mtd -> {
+                    nodes.add(mtd);
+                    nodes.addAll(mtd.getParameters());
+                });
+                ret = nodes.toArray(new INode[nodes.size()]);
+                this.members.set(idx, ret);
+            }
+            return ret;
+        }
+    }
+
+    private static void write(Consumer<String> lines, Format format, boolean reversed, Element element, INode node) {
         String line = node.write(format, reversed);
         if (line != null) {
-            lines.add(line);
+            lines.accept(line);
             writeMeta(format, lines, element, node.getMetadata());
         }
     }
 
     @Override
     public MappingFile reverse() {
-        MappingFile ret = new MappingFile();
-        getPackages().forEach(pkg -> ret.addPackage(pkg.getMapped(), pkg.getOriginal(), pkg.getMetadata()));
-        getClasses().forEach(cls -> {
-            Cls c = ret.addClass(cls.getMapped(), cls.getOriginal(), cls.getMetadata());
-            cls.getFields().forEach(fld -> c.addField(fld.getMapped(), fld.getOriginal(), fld.getMappedDescriptor(), fld.getMetadata()));
-            cls.getMethods().forEach(mtd -> {
-                Cls.Method m = c.addMethod(mtd.getMapped(), mtd.getMappedDescriptor(), mtd.getOriginal(), mtd.getMetadata());
-                mtd.getParameters().forEach(par -> m.addParameter(par.getIndex(), par.getMapped(), par.getOriginal(), par.getMetadata()));
-            });
-        });
-        return ret;
+        return this.named.getMap(toI, fromI);
     }
 
     @Override
     public MappingFile rename(IRenamer renamer) {
-        MappingFile ret = new MappingFile();
-        getPackages().forEach(pkg -> ret.addPackage(pkg.getOriginal(), renamer.rename(pkg), pkg.getMetadata()));
-        getClasses().forEach(cls -> {
-            Cls c = ret.addClass(cls.getOriginal(), renamer.rename(cls), cls.getMetadata());
-            cls.getFields().forEach(fld -> c.addField(fld.getOriginal(), renamer.rename(fld), fld.getDescriptor(), fld.getMetadata()));
-            cls.getMethods().forEach(mtd -> {
-                Cls.Method m = c.addMethod(mtd.getOriginal(), mtd.getDescriptor(), renamer.rename(mtd), mtd.getMetadata());
-                mtd.getParameters().forEach(par -> m.addParameter(par.getIndex(), par.getOriginal(), renamer.rename(par), par.getMetadata()));
-            });
-        });
-        return ret;
+        NamedMappingFile ret = new NamedMappingFile("left", "right");
+        getPackages().forEach(pkg -> copyPackage(ret, pkg, renamer));
+        getClasses().forEach(cls -> copyClass(ret, cls, renamer));
+        return ret.getMap(0, 1);
     }
 
     @Override
@@ -246,88 +455,102 @@ class MappingFile implements IMappingFile {
 
     @Override
     public MappingFile merge(IMappingFile other) {
-        MappingFile ret = new MappingFile();
-        getPackages().forEach(pkg -> ret.addPackage(pkg.getOriginal(), pkg.getMapped(), pkg.getMetadata()));
-        getClasses().forEach(cls -> copyClass(ret, cls));
+        NamedMappingFile ret = new NamedMappingFile("left", "right");
+        getPackages().forEach(pkg -> copyPackage(ret, pkg, KEEP));
+        getClasses().forEach(cls -> copyClass(ret, cls, KEEP));
 
         other.getPackages().forEach(pkg -> {
-            Package existingPkg = ret.getPackage(pkg.getOriginal());
+            NamedMappingFile.Package existingPkg = ret.getPackage(0, pkg.getOriginal());
             if (existingPkg == null) {
-                ret.addPackage(pkg.getOriginal(), pkg.getMapped(), pkg.getMetadata());
+                copyPackage(ret, pkg, KEEP);
             } else {
-                ret.addPackage(pkg.getOriginal(), existingPkg.getMapped(), mergeMetadata(existingPkg.getMetadata(), pkg.getMetadata()));
+                mergeMetadata(existingPkg, pkg.getMetadata());
             }
         });
         other.getClasses().forEach(cls -> {
-            Cls existingCls = ret.getClass(cls.getOriginal());
+            NamedMappingFile.Cls existingCls = ret.getClass(0, cls.getOriginal());
             if (existingCls == null) {
-                copyClass(ret, cls);
+                copyClass(ret, cls, KEEP);
                 return;
             }
 
-            Cls newCls = ret.addClass(cls.getOriginal(), existingCls.getMapped(), mergeMetadata(existingCls.getMetadata(), cls.getMetadata()));
-            newCls.methods.putAll(existingCls.methods);
-            newCls.fields.putAll(existingCls.fields);
+            mergeMetadata(existingCls, cls.getMetadata());
             cls.getFields().forEach(fld -> {
-                IField existingFld = existingCls.getField(fld.getOriginal());
+                NamedMappingFile.Cls.Field existingFld = existingCls.getField(0, fld.getOriginal());
                 if (existingFld == null) {
-                    newCls.addField(fld.getOriginal(), fld.getMapped(), fld.getDescriptor(), fld.getMetadata());
+                    copyField(existingCls, fld, KEEP);
                 } else {
-                    newCls.addField(fld.getOriginal(), existingFld.getMapped(), existingFld.getDescriptor(), mergeMetadata(existingFld.getMetadata(), fld.getMetadata()));
+                    mergeMetadata(existingFld, fld.getMetadata());
                 }
             });
             cls.getMethods().forEach(mtd -> {
-                Cls.Method existingMtd = existingCls.getMethod(mtd.getOriginal(), mtd.getDescriptor());
+                NamedMappingFile.Cls.Method existingMtd = existingCls.getMethod(0, mtd.getOriginal(), mtd.getDescriptor());
                 if (existingMtd == null) {
-                    copyMethod(newCls, mtd);
+                    copyMethod(existingCls, mtd, KEEP);
                     return;
                 }
 
-                Cls.Method newMtd = newCls.addMethod(mtd.getOriginal(), existingMtd.getDescriptor(), existingMtd.getMapped(), mergeMetadata(existingMtd.getMetadata(), mtd.getMetadata()));
-                newMtd.params.putAll(existingMtd.params);
+                mergeMetadata(existingMtd, mtd.getMetadata());
                 mtd.getParameters().forEach(par -> {
-                    IParameter existingPar = existingMtd.getParameter(par.getIndex());
+                    NamedMappingFile.Cls.Method.Parameter existingPar = existingMtd.getParameter(par.getIndex());
                     if (existingPar == null) {
-                        newMtd.addParameter(par.getIndex(), par.getOriginal(), par.getMapped(), par.getMetadata());
+                        copyParameter(existingMtd, par, KEEP);
                     } else {
-                        newMtd.addParameter(par.getIndex(), par.getOriginal(), existingPar.getMapped(), mergeMetadata(existingPar.getMetadata(), par.getMetadata()));
+                        mergeMetadata(existingPar, par.getMetadata());
                     }
                 });
             });
         });
 
-        return ret;
+        return ret.getMap(0, 1);
+    }
+
+    // Copies keep the original names and descriptors, and take their mapped names from the renamer
+    private static final IRenamer KEEP = new IRenamer() {};
+
+    private static void copyPackage(NamedMappingFile ret, IPackage pkg, IRenamer renamer) {
+        pkg.getMetadata().forEach(ret.addPackage(pkg.getOriginal(), renamer.rename(pkg))::putMeta);
     }
 
-    private static void copyClass(MappingFile ret, IClass cls) {
-        Cls c = ret.addClass(cls.getOriginal(), cls.getMapped(), cls.getMetadata());
-        cls.getFields().forEach(fld -> c.addField(fld.getOriginal(), fld.getMapped(), fld.getDescriptor(), fld.getMetadata()));
-        cls.getMethods().forEach(mtd -> copyMethod(c, mtd));
+    private static void copyClass(NamedMappingFile ret, IClass cls, IRenamer renamer) {
+        NamedMappingFile.Cls c = ret.addClass(cls.getOriginal(), renamer.rename(cls));
+        cls.getMetadata().forEach(c::putMeta);
+        cls.getFields().forEach(fld -> copyField(c, fld, renamer));
+        cls.getMethods().forEach(mtd -> copyMethod(c, mtd, renamer));
     }
 
-    private static void copyMethod(Cls c, IMethod mtd) {
-        Cls.Method m = c.addMethod(mtd.getOriginal(), mtd.getDescriptor(), mtd.getMapped(), mtd.getMetadata());
-        mtd.getParameters().forEach(par -> m.addParameter(par.getIndex(), par.getOriginal(), par.getMapped(), par.getMetadata()));
+    private static void copyField(NamedMappingFile.Cls c, IField fld, IRenamer renamer) {
+        NamedMappingFile.Cls.Field f = c.field(fld.getOriginal(), renamer.rename(fld));
+        f.descriptor(fld.getDescriptor());
+        fld.getMetadata().forEach(f::putMeta);
     }
 
-    private static Map<String, String> mergeMetadata(Map<String, String> base, Map<String, String> extra) {
-        Map<String, String> merged = new HashMap<>(base);
+    private static void copyMethod(NamedMappingFile.Cls c, IMethod mtd, IRenamer renamer) {
+        NamedMappingFile.Cls.Method m = c.method(mtd.getDescriptor(), mtd.getOriginal(), renamer.rename(mtd));
+        mtd.getMetadata().forEach(m::putMeta);
+        mtd.getParameters().forEach(par -> copyParameter(m, par, renamer));
+    }
 
-        for (Map.Entry<String, String> entry : extra.entrySet()) {
-            if (!merged.containsKey(entry.getKey())) {
-                merged.put(entry.getKey(), entry.getValue());
-            }
-        }
+    private static void copyParameter(NamedMappingFile.Cls.Method m, IParameter par, IRenamer renamer) {
+        par.getMetadata().forEach(m.parameter(par.getIndex(), par.getOriginal(), renamer.rename(par))::putMeta);
+    }
 
-        return merged;
+    // Keys already on the node are kept
+    private static void mergeMetadata(NamedMappingFile.Named node, Map<String, String> extra) {
+        extra.forEach((k, v) -> {
+            if (!node.getMeta().containsKey(k))
+                node.putMeta(k, v);
+        });
     }
 
     abstract class Node implements INode {
+        private final NamedMappingFile.Named source;
         private final String original;
         private final String mapped;
         private final Map<String, String> metadata;
 
-        protected Node(String original, String mapped, Map<String, String> metadata) {
+        protected Node(NamedMappingFile.Named source, String original, String mapped, Map<String, String> metadata) {
+            this.source = source;
             this.original = original;
             this.mapped = mapped;
             this.metadata = metadata.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(metadata);
@@ -347,11 +570,34 @@ class MappingFile implements IMappingFile {
         public Map<String, String> getMetadata() {
             return this.metadata;
         }
+
+        private MappingFile getView() {
+            return MappingFile.this;
+        }
+
+        /*
+         * Nodes are made on every lookup, so two nodes are equal when they show the same named node through the same columns.
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof Node))
+                return false;
+            Node other = (Node)obj;
+            MappingFile view = other.getView();
+            return this.source == other.source && named == view.named && fromI == view.fromI && toI == view.toI;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(this.source) * 31 + fromI) * 31 + toI;
+        }
     }
 
     class Package extends Node implements IPackage {
-        protected Package(String original, String mapped, Map<String, String> metadata) {
-            super(original, mapped, metadata);
+        protected Package(NamedMappingFile.Package source, String original, String mapped, Map<String, String> metadata) {
+            super(source, original, mapped, metadata);
         }
 
         @Override
@@ -385,13 +631,19 @@ class MappingFile implements IMappingFile {
     }
 
     class Cls extends Node implements IClass {
-        private Map<String, Field> fields = new HashMap<>();
-        private Collection<Field> fieldsView = Collections.unmodifiableCollection(fields.values());
-        private Map<String, Method> methods = new HashMap<>();
-        private Collection<Method> methodsView = Collections.unmodifiableCollection(methods.values());
+        private final NamedMappingFile.Cls source;
+
+        private Cls(NamedMappingFile.Cls source, String original, String mapped, Map<String, String> metadata) {
+            super(source, original, mapped, metadata);
+            this.source = source;
+        }
+
+        private Field view(NamedMappingFile.Cls.Field fld) {
+            return new Field(fld, fld.getName(fromI), fld.getName(toI), fld.getDescriptor(fromI), fld.getMeta());
+        }
 
-        protected Cls(String original, String mapped, Map<String, String> metadata) {
-            super(original, mapped, metadata);
+        private Method view(NamedMappingFile.Cls.Method mtd) {
+            return new Method(mtd, mtd.getName(fromI), mtd.getDescriptor(fromI), mtd.getName(toI), mtd.getMeta());
         }
 
         @Override
@@ -414,44 +666,52 @@ class MappingFile implements IMappingFile {
 
         @Override
         public Collection<Field> getFields() {
-            return this.fieldsView;
+            return views(this.source.getFields(fromI), this::view);
         }
 
         @Override
         @Nullable
         public IField getField(String name) {
-            return this.fields.get(name);
+            NamedMappingFile.Cls.Field fld = this.source.getField(fromI, name);
+            return fld == null ? null : view(fld);
         }
 
         @Override
         public String remapField(String field) {
-            Field fld = fields.get(field);
-            return fld  == null ? field : fld.getMapped();
-        }
-
-        private Field addField(String original, String mapped, String desc, Map<String, String> metadata) {
-            return retPut(this.fields, original, new Field(original, mapped, desc, metadata));
+            NamedMappingFile.Cls.Field fld = this.source.getField(fromI, field);
+            return fld == null ? field : fld.getName(toI);
         }
 
         @Override
         public Collection<Method> getMethods() {
-            return this.methodsView;
+            return views(this.source.getMethods(fromI), this::view);
         }
 
         @Override
         @Nullable
         public Method getMethod(String name, String desc) {
-            return this.methods.get(name + desc);
+            NamedMappingFile.Cls.Method mtd = this.source.getMethod(fromI, name, desc);
+            return mtd == null ? null : view(mtd);
         }
 
-        private Method addMethod(String original, String desc, String mapped, Map<String, String> metadata) {
-            return retPut(this.methods, original + desc, new Method(original, desc, mapped, metadata));
+        @Override
+        @Nullable
+        public Field getFieldByMapped(String mapped) {
+            NamedMappingFile.Cls.Field fld = this.source.getField(toI, mapped);
+            return fld == null ? null : view(fld);
+        }
+
+        @Override
+        @Nullable
+        public Method getMethodByMapped(String mapped, String mappedDesc) {
+            NamedMappingFile.Cls.Method mtd = this.source.getMethod(toI, mapped, mappedDesc);
+            return mtd == null ? null : view(mtd);
         }
 
         @Override
         public String remapMethod(String name, String desc) {
-            Method mtd = methods.get(name + desc);
-            return mtd == null ? name : mtd.getMapped();
+            NamedMappingFile.Cls.Method mtd = this.source.getMethod(fromI, name, desc);
+            return mtd == null ? name : mtd.getName(toI);
         }
 
         @Override
@@ -461,9 +721,11 @@ class MappingFile implements IMappingFile {
 
         class Field extends Node implements IField {
             private final String desc;
+            @Nullable
+            private String mappedDesc;
 
-            private Field(String original, String mapped, String desc, Map<String, String> metadata) {
-                super(original, mapped, metadata);
+            private Field(NamedMappingFile.Cls.Field source, String original, String mapped, String desc, Map<String, String> metadata) {
+                super(source, original, mapped, metadata);
                 this.desc = desc;
             }
 
@@ -474,7 +736,9 @@ class MappingFile implements IMappingFile {
 
             @Override
             public String getMappedDescriptor() {
-                return this.desc == null ? null : MappingFile.this.remapDescriptor(this.desc);
+                if (this.mappedDesc == null && this.desc != null)
+                    this.mappedDesc = MappingFile.this.remapMemberDescriptor(this.desc);
+                return this.mappedDesc;
             }
 
             @Override
@@ -516,12 +780,18 @@ class MappingFile implements IMappingFile {
 
         class Method extends Node implements IMethod {
             private final String desc;
-            private final Map<Integer, Parameter> params = new HashMap<>();
-            private final Collection<Parameter> paramsView = Collections.unmodifiableCollection(params.values());
+            @Nullable
+            private String mappedDesc;
+            private final NamedMappingFile.Cls.Method source;
 
-            private Method(String original, String desc, String mapped, Map<String, String> metadata) {
-                super(original, mapped, metadata);
+            private Method(NamedMappingFile.Cls.Method source, String original, String desc, String mapped, Map<String, String> metadata) {
+                super(source, original, mapped, metadata);
                 this.desc = desc;
+                this.source = source;
+            }
+
+            private Parameter view(NamedMappingFile.Cls.Method.Parameter par) {
+                return new Parameter(par, par.getIndex(), par.getName(fromI), par.getName(toI), par.getMeta());
             }
 
             @Override
@@ -530,28 +800,27 @@ class MappingFile implements IMappingFile {
             }
             @Override
             public String getMappedDescriptor() {
-                return MappingFile.this.remapDescriptor(this.desc);
+                if (this.mappedDesc == null)
+                    this.mappedDesc = MappingFile.this.remapMemberDescriptor(this.desc);
+                return this.mappedDesc;
             }
 
             @Override
             public Collection<Parameter> getParameters() {
-                return this.paramsView;
-            }
-
-            private Parameter addParameter(int index, String original, String mapped, Map<String, String> metadata) {
-                return retPut(this.params, index, new Parameter(index, original, mapped, metadata));
+                return views(this.source.getParameters(), this::view);
             }
 
             @Nullable
             @Override
             public IParameter getParameter(int index) {
-                return this.params.get(index);
+                NamedMappingFile.Cls.Method.Parameter par = this.source.getParameter(index);
+                return par == null ? null : view(par);
             }
 
             @Override
             public String remapParameter(int index, String name) {
-                Parameter param = this.params.get(index);
-                return param == null ? name : param.getMapped();
+                NamedMappingFile.Cls.Method.Parameter par = this.source.getParameter(index);
+                return par == null ? name : par.getName(toI);
             }
 
             @Override
@@ -591,8 +860,8 @@ class MappingFile implements IMappingFile {
 
             class Parameter extends Node implements IParameter {
                 private final int index;
-                protected Parameter(int index, String original, String mapped, Map<String, String> metadata) {
-                    super(original, mapped, metadata);
+                protected Parameter(NamedMappingFile.Cls.Method.Parameter source, int index, String original, String mapped, Map<String, String> metadata) {
+                    super(source, original, mapped, metadata);
                     this.index = index;
                 }
                 @Override
@@ -623,9 +892,4 @@ class MappingFile implements IMappingFile {
             }
         }
     }
-
-    private static <K, V> V retPut(Map<K, V> map, K key, V value) {
-        map.put(key, value);
-        return value;
-    }
 }
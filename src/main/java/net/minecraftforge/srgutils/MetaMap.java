@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.BiConsumer;
+
+/*
+ * The metadata of a node, which rarely has more than one or two entries, so a hash table would mostly be empty space.
+ * Keys and values are kept next to each other in one array, in the order they were first added, and found by scanning it.
+ * Like LinkedHashMap, putting a key that is already there replaces its value but keeps its place.
+ */
+class MetaMap extends AbstractMap<String, String> {
+    private String[] data = new String[4];
+    private int size;
+
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) != -1;
+    }
+
+    @Override
+    public String get(Object key) {
+        int idx = indexOf(key);
+        return idx == -1 ? null : this.data[idx + 1];
+    }
+
+    @Override
+    public String put(String key, String value) {
+        if (key == null)
+            throw new NullPointerException("key");
+
+        int idx = indexOf(key);
+        if (idx != -1) {
+            String ret = this.data[idx + 1];
+            this.data[idx + 1] = value;
+            return ret;
+        }
+
+        if (this.size * 2 == this.data.length)
+            this.data = Arrays.copyOf(this.data, this.data.length * 2);
+        this.data[this.size * 2] = key;
+        this.data[this.size * 2 + 1] = value;
+        this.size++;
+        return null;
+    }
+
+    @Override
+    public void forEach(BiConsumer<? super String, ? super String> action) {
+        for (int x = 0; x < this.size * 2; x += 2)
+            action.accept(this.data[x], this.data[x + 1]);
+    }
+
+    private int indexOf(Object key) {
+        for (int x = 0; x < this.size * 2; x += 2) {
+            if (this.data[x].equals(key))
+                return x;
+        }
+        return -1;
+    }
+
+    @Override
+    public Set<Entry<String, String>> entrySet() {
+        return new AbstractSet<Entry<String, String>>() {
+            @Override
+            public int size() {
+                return MetaMap.this.size;
+            }
+
+            @Override
+            public Iterator<Entry<String, String>> iterator() {
+                return new Iterator<Entry<String, String>>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.next < MetaMap.this.size * 2;
+                    }
+
+                    @Override
+                    public Entry<String, String> next() {
+                        if (!hasNext())
+                            throw new NoSuchElementException();
+                        Entry<String, String> ret = new SimpleImmutableEntry<>(MetaMap.this.data[this.next], MetaMap.this.data[this.next + 1]);
+                        this.next += 2;
+                        return ret;
+                    }
+                };
+            }
+        };
+    }
+}
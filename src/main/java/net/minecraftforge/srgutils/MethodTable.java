@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.jetbrains.annotations.Nullable;
+
+/*
+ * The methods of a class, keyed by name and descriptor together without joining them into a new String.
+ * remapMethod is called for every method reference when remapping a jar, so a lookup only hashes the two Strings, whose hashes are cached, and compares them.
+ *
+ * Entries are kept in the order they were added, in flat arrays, and found through an open addressing table of their positions.
+ * Putting a key that is already there replaces its value but keeps its place. Nothing is ever removed.
+ */
+class MethodTable<V> {
+    private static final String[] EMPTY = new String[0];
+
+    private String[] names = EMPTY;
+    private String[] descs = EMPTY;
+    private Object[] values = new Object[0];
+    private int[] table; // Index + 1, or 0 if the slot is empty
+    private int size;
+    private final Collection<V> view = new AbstractCollection<V>() {
+        @Override
+        public int size() {
+            return MethodTable.this.size;
+        }
+
+        @Override
+        public Iterator<V> iterator() {
+            return new Iterator<V>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return this.next < MethodTable.this.size;
+                }
+
+                @Override
+                @SuppressWarnings("unchecked")
+                public V next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    return (V)MethodTable.this.values[this.next++];
+                }
+            };
+        }
+    };
+
+    int size() {
+        return this.size;
+    }
+
+    /*
+     * A read only view of the values, in the order they were added.
+     */
+    Collection<V> values() {
+        return this.view;
+    }
+
+    boolean containsKey(String name, String desc) {
+        return indexOf(name, desc) != -1;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V get(String name, String desc) {
+        int idx = indexOf(name, desc);
+        return idx == -1 ? null : (V)this.values[idx];
+    }
+
+    void put(String name, String desc, V value) {
+        int idx = indexOf(name, desc);
+        if (idx != -1) {
+            this.values[idx] = value;
+            return;
+        }
+
+        if (this.size == this.values.length) {
+            int capacity = Math.max(4, this.size * 2);
+            this.names = Arrays.copyOf(this.names, capacity);
+            this.descs = Arrays.copyOf(this.descs, capacity);
+            this.values = Arrays.copyOf(this.values, capacity);
+            this.table = new int[capacity * 2];
+            for (int x = 0; x < this.size; x++)
+                insert(x, hash(this.names[x], this.descs[x]));
+        }
+
+        this.names[this.size] = name;
+        this.descs[this.size] = desc;
+        this.values[this.size] = value;
+        insert(this.size, hash(name, desc));
+        this.size++;
+    }
+
+    private void insert(int idx, int hash) {
+        int mask = this.table.length - 1;
+        int slot = hash & mask;
+        while (this.table[slot] != 0)
+            slot = (slot + 1) & mask;
+        this.table[slot] = idx + 1;
+    }
+
+    private int indexOf(String name, String desc) {
+        if (this.size == 0)
+            return -1;
+
+        int mask = this.table.length - 1;
+        for (int slot = hash(name, desc) & mask, idx; (idx = this.table[slot]) != 0; slot = (slot + 1) & mask) {
+            if (this.names[idx - 1].equals(name) && this.descs[idx - 1].equals(desc))
+                return idx - 1;
+        }
+        return -1;
+    }
+
+    private static int hash(String name, String desc) {
+        int hash = (name.hashCode() * 31 + desc.hashCode()) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
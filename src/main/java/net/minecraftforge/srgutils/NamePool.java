@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/*
+ * The names of a file loaded with LoadOptions.compact(), each distinct name is stored once as UTF-8 in a single arena and nodes hold an int handle per column.
+ * A String is only created when a name is asked for, instead of every column of every node keeping its own.
+ *
+ * Names are only added while the file is being read, which happens on one thread, after that the pool is only read.
+ *
+ * Decoding a name is a copy out of the arena, and remapping asks for the same few names over and over, so recently decoded names are kept in a small
+ * table indexed by handle. A slot holds one immutable entry, so threads reading at once at worst decode the same name twice.
+ */
+class NamePool {
+    private static final int DECODED_SIZE = 1 << 12; // Slots of recently decoded names, bounded so the pool stays small however large the file is
+
+    private byte[] arena = new byte[1 << 16];
+    private int[] offsets = new int[1 << 10]; // Where each name starts, the next one starts where it ends
+    private int[] hashes = new int[1 << 10];
+    private int[] table = new int[1 << 11];   // Open addressing, handle + 1, or 0 if the slot is empty
+    private int count;
+    private final Decoded[] decoded = new Decoded[DECODED_SIZE];
+
+    int[] add(String... names) {
+        int[] ret = new int[names.length];
+        for (int x = 0; x < names.length; x++)
+            ret[x] = add(names[x]);
+        return ret;
+    }
+
+    int add(String name) {
+        int hash = name.hashCode();
+        byte[] data = name.getBytes(StandardCharsets.UTF_8);
+        int mask = this.table.length - 1;
+        int slot = mix(hash) & mask;
+        for (int handle; (handle = this.table[slot]) != 0; slot = (slot + 1) & mask) {
+            if (this.hashes[handle - 1] == hash && matches(handle - 1, data))
+                return handle - 1;
+        }
+
+        int handle = this.count++;
+        if (this.count + 1 > this.offsets.length) {
+            this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+            this.hashes = Arrays.copyOf(this.hashes, this.hashes.length * 2);
+        }
+        int start = this.offsets[handle];
+        if (start + data.length > this.arena.length)
+            this.arena = Arrays.copyOf(this.arena, Math.max(start + data.length, this.arena.length * 2));
+        System.arraycopy(data, 0, this.arena, start, data.length);
+        this.offsets[handle + 1] = start + data.length;
+        this.hashes[handle] = hash;
+        this.table[slot] = handle + 1;
+
+        if (this.count * 2 > this.table.length)
+            rehash();
+        return handle;
+    }
+
+    String get(int handle) {
+        int slot = handle & (DECODED_SIZE - 1);
+        Decoded entry = this.decoded[slot];
+        if (entry != null && entry.handle == handle)
+            return entry.name;
+
+        int start = this.offsets[handle];
+        String name = new String(this.arena, start, this.offsets[handle + 1] - start, StandardCharsets.UTF_8);
+        this.decoded[slot] = new Decoded(handle, name);
+        return name;
+    }
+
+    private boolean matches(int handle, byte[] data) {
+        int start = this.offsets[handle];
+        if (this.offsets[handle + 1] - start != data.length)
+            return false;
+        for (int x = 0; x < data.length; x++) {
+            if (this.arena[start + x] != data[x])
+                return false;
+        }
+        return true;
+    }
+
+    private void rehash() {
+        int[] table = new int[this.table.length * 2];
+        int mask = table.length - 1;
+        for (int handle = 0; handle < this.count; handle++) {
+            int slot = mix(this.hashes[handle]) & mask;
+            while (table[slot] != 0)
+                slot = (slot + 1) & mask;
+            table[slot] = handle + 1;
+        }
+        this.table = table;
+    }
+
+    // String hashes of similar names differ in the low bits the least, so spread the high bits down
+    private static int mix(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static class Decoded {
+        private final int handle;
+        private final String name;
+
+        private Decoded(int handle, String name) {
+            this.handle = handle;
+            this.name = name;
+        }
+    }
+}
@@ -7,42 +7,55 @@ package net.minecraftforge.srgutils;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.regex.Matcher;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
-import java.util.zip.GZIPOutputStream;
 
 import net.minecraftforge.srgutils.IMappingFile.Format;
+import net.minecraftforge.srgutils.IMappingVisitor.Element;
 import org.jetbrains.annotations.Nullable;
 
 import static net.minecraftforge.srgutils.IMappingFile.Format.*;
-import static net.minecraftforge.srgutils.InternalUtils.Element.*;
+import static net.minecraftforge.srgutils.IMappingVisitor.Element.*;
 import static net.minecraftforge.srgutils.InternalUtils.*;
 
 class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
     private final List<String> names;
     private final Map<String, Package> packages = new HashMap<>();
-    private final Map<String, Cls> classes = new HashMap<>();
-    private final Map<String, String[]> classCache = new ConcurrentHashMap<>();
-    private final Map<String, IMappingFile> mapCache = new ConcurrentHashMap<>(); //TODO: Weak?
+    private final Map<String, Cls> classes;
+    private volatile RemapCache<String[]> classCache = new RemapCache<>(RemapCache.DEFAULT_CAPACITY);
+    private final Map<String, String[]> descCache = new ConcurrentHashMap<>(); // Mapped descriptors by column, filled in as they are asked for
+    private final AtomicReferenceArray<MappingFile> maps; // Views are tiny, so every pair asked for is kept, by from * names + to
+    @Nullable
+    private volatile ClassIndex index; // Classes that haven't been read yet, see LoadOptions.lazy
+    @Nullable
+    private final NamePool pool; // Holds the names of every node, see LoadOptions.compact
+    @Nullable
+    private volatile Column[] columns; // Nodes by their other names, see getPackages(int)
 
     NamedMappingFile(String... names) {
+        this(false, null, names);
+    }
+
+    // Lazy files add classes as they are looked up, possibly from several threads
+    NamedMappingFile(boolean lazy, @Nullable NamePool pool, String... names) {
         if (names == null || names.length < 2)
             throw new IllegalArgumentException("Can not create Mapping file with less then two names");
         this.names = Collections.unmodifiableList(Arrays.asList(names));
+        this.classes = lazy ? new ConcurrentHashMap<>() : new HashMap<>();
+        this.pool = pool;
+        this.maps = new AtomicReferenceArray<>(names.length * names.length);
     }
 
     private void ensureCount(String... names) {
@@ -56,19 +69,76 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
     }
 
     @Override
-    public IMappingFile getMap(final String from, final String to) {
-        String key = from + "_to_" + to;
-        return mapCache.computeIfAbsent(key, k -> {
-            int fromI = this.names.indexOf(from);
-            int toI = this.names.indexOf(to);
-            if (fromI == -1 || toI == -1)
-                throw new IllegalArgumentException("Could not find mapping names: " + from + " / " + to);
-            return new MappingFile(this, fromI, toI);
-        });
+    public MappingFile getMap(final String from, final String to) {
+        int fromI = this.names.indexOf(from);
+        int toI = this.names.indexOf(to);
+        if (fromI == -1 || toI == -1)
+            throw new IllegalArgumentException("Could not find mapping names: " + from + " / " + to);
+        return getMap(fromI, toI);
+    }
+
+    MappingFile getMap(int from, int to) {
+        int key = from * this.names.size() + to;
+        MappingFile ret = this.maps.get(key);
+        if (ret == null && !this.maps.compareAndSet(key, null, ret = new MappingFile(this, from, to)))
+            ret = this.maps.get(key);
+        return ret;
+    }
+
+    @Override
+    public void setRemapCacheSize(int size) {
+        this.classCache = new RemapCache<>(size);
+    }
+
+    @Override
+    public CacheStats getRemapCacheStats() {
+        return this.classCache.getStats();
     }
 
     @Override
     public void write(Path path, Format format, String... order) throws IOException {
+        write(path, format, WriteOptions.defaults(), order);
+    }
+
+    @Override
+    public void write(Path path, Format format, WriteOptions options, String... order) throws IOException {
+        int[] indexes = getIndexes(format, order);
+        if (format == BINARY) {
+            try (OutputStream out = newOutputStream(path)) {
+                writeBinary(out, order, indexes);
+            }
+            return;
+        }
+
+        try (BufferedWriter writer = newWriter(path)) {
+            write(writer, format, order, indexes, options.getPool());
+        }
+    }
+
+    @Override
+    public void write(OutputStream out, Format format, String... order) throws IOException {
+        int[] indexes = getIndexes(format, order);
+        if (format == BINARY) {
+            writeBinary(out, order, indexes);
+            out.flush();
+            return;
+        }
+
+        BufferedWriter writer = newWriter(out);
+        write(writer, format, order, indexes, null);
+        writer.flush();
+    }
+
+    @Override
+    public void write(Appendable out, Format format, String... order) throws IOException {
+        write(out, format, order, getIndexes(format, order), null);
+    }
+
+    private void write(Appendable out, Format format, String[] order, int[] indexes, @Nullable ForkJoinPool pool) throws IOException {
+        writeLines(out, format, header(format, order), blocks(format, indexes), pool);
+    }
+
+    private int[] getIndexes(Format format, String... order) {
         if (order == null || order.length == 1)
             throw new IllegalArgumentException("Invalid order, you must specify atleast 2 names");
 
@@ -81,70 +151,81 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
             if (indexes[x] == -1)
                 throw new IllegalArgumentException("Invalid order: Missing \"" + order[x] + "\" name");
         }
+        return indexes;
+    }
 
+    // Overloads share a name, so methods are ordered by descriptor after it
+    private static Comparator<Cls.Method> methodSort(Comparator<Named> sort, int index) {
+        return (a,b) -> {
+            int ret = sort.compare(a, b);
+            return ret != 0 ? ret : a.getDescriptor(index).compareTo(b.getDescriptor(index));
+        };
+    }
 
-        List<String> lines = new ArrayList<>();
+    // The packages, then each class with its members, in the order they are written
+    private List<Consumer<Consumer<String>>> blocks(Format format, int[] indexes) {
         Comparator<Named> sort = (a,b) -> a.getName(indexes[0]).compareTo(b.getName(indexes[0]));
 
-        getPackages().sorted(sort).forEachOrdered(pkg ->
-            write(lines, format, indexes, PACKAGE, pkg.meta, pkg)
-        );
-        getClasses().sorted(sort).forEachOrdered(cls -> {
-            write(lines, format, indexes, CLASS, cls.meta, cls);
+        List<Consumer<Consumer<String>>> ret = new ArrayList<>();
+        ret.add(lines -> getPackages().sorted(sort).forEachOrdered(pkg ->
+            write(lines, format, indexes, PACKAGE, pkg)
+        ));
+        getClasses().sorted(sort).forEachOrdered(cls -> ret.add(lines -> {
+            write(lines, format, indexes, CLASS, cls);
 
             cls.getFields().sorted(sort).forEachOrdered(fld ->
-                write(lines, format, indexes, FIELD, fld.meta, fld)
+                write(lines, format, indexes, FIELD, fld)
             );
 
-            cls.getMethods().sorted(sort).forEachOrdered(mtd -> {
-                write(lines, format, indexes, METHOD, mtd.meta, mtd);
+            cls.getMethods().sorted(methodSort(sort, indexes[0])).forEachOrdered(mtd -> {
+                write(lines, format, indexes, METHOD, mtd);
 
-                mtd.getParameters().sorted((a,b) -> a.getIndex() - b.getIndex()).forEachOrdered(par ->
-                    write(lines, format, indexes, PARAMETER, par.meta, par)
+                mtd.getParameters().forEach(par ->
+                    write(lines, format, indexes, PARAMETER, par)
                 );
             });
+        }));
+        return ret;
+    }
+
+    // Visits the same tree the text formats write, with the columns in the given order
+    private void writeBinary(OutputStream out, String[] order, int[] indexes) throws IOException {
+        Comparator<Named> sort = (a,b) -> a.getName(indexes[0]).compareTo(b.getName(indexes[0]));
+        BinaryMappings.Writer writer = new BinaryMappings.Writer();
+
+        writer.visitHeader(order);
+        getPackages().sorted(sort).forEachOrdered(pkg -> {
+            writer.visitPackage(pkg.selectNames(indexes));
+            pkg.getMeta().forEach((k, v) -> writer.visitMeta(PACKAGE, k, v));
         });
+        getClasses().sorted(sort).forEachOrdered(cls -> {
+            writer.visitClass(cls.selectNames(indexes));
+            cls.getMeta().forEach((k, v) -> writer.visitMeta(CLASS, k, v));
 
-        lines.removeIf(Objects::isNull);
-
-        if (!format.isOrdered()) {
-            Comparator<String> linesort = (format == SRG || format == XSRG) ? InternalUtils::compareLines : (o1, o2) -> o1.compareTo(o2);
-            lines.sort(linesort);
-        }
-
-        if (format == TINY1 || format == TINY) {
-            StringBuilder buf = new StringBuilder();
-            buf.append(format == TINY ? "tiny\t2\t0" : "v1");
-            for (String name : order)
-                buf.append('\t').append(name);
-            lines.add(0, buf.toString());
-        } else if (format == TSRG2) {
-            StringBuilder buf = new StringBuilder();
-            buf.append("tsrg2");
-            for (String name : order)
-                buf.append(' ').append(name);
-            lines.add(0, buf.toString());
-        }
-
-        Files.createDirectories(path.getParent());
-        try (OutputStream fos = Files.newOutputStream(path)) {
-            OutputStream out = fos;
-            if (path.getFileName().toString().endsWith(".gz"))
-                out = new GZIPOutputStream(out);
-            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
-                for (String line : lines) {
-                    writer.write(line);
-                    writer.write('\n');
-                }
-            }
-        }
+            cls.getFields().sorted(sort).forEachOrdered(fld -> {
+                writer.visitField(fld.getDescriptor(indexes[0]), fld.selectNames(indexes));
+                fld.getMeta().forEach((k, v) -> writer.visitMeta(FIELD, k, v));
+            });
+
+            cls.getMethods().sorted(methodSort(sort, indexes[0])).forEachOrdered(mtd -> {
+                writer.visitMethod(mtd.getDescriptor(indexes[0]), mtd.selectNames(indexes));
+                mtd.getMeta().forEach((k, v) -> writer.visitMeta(METHOD, k, v));
+
+                mtd.getParameters().forEach(par -> {
+                    writer.visitParameter(par.getIndex(), par.selectNames(indexes));
+                    par.getMeta().forEach((k, v) -> writer.visitMeta(PARAMETER, k, v));
+                });
+            });
+        });
+        writer.visitEnd();
+        writer.writeTo(out);
     }
 
-    private static void write(List<String> lines, Format format, int[] indexes, Element element, Map<String, String> meta, Named node) {
+    private static void write(Consumer<String> lines, Format format, int[] indexes, Element element, Named node) {
         String line = node.write(format, indexes);
         if (line != null) {
-            lines.add(line);
-            writeMeta(format, lines, element, meta);
+            lines.accept(line);
+            writeMeta(format, lines, element, node.getMeta());
         }
     }
 
@@ -160,32 +241,33 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
     }
 
     private String[] remapClass(String cls) {
+        RemapCache<String[]> classCache = this.classCache;
         String[] ret = classCache.get(cls);
         if (ret == null) {
-            Cls _cls = classes.get(cls);
-            if (_cls == null) {
-                int idx = cls.lastIndexOf('$');
-                if (idx != -1) {
-                    String[] parent = remapClass(cls.substring(0, idx));
-                    ret = new String[parent.length];
-                    for (int x = 0; x < ret.length; x++)
-                        ret[x] = parent[x] + '$' + cls.substring(idx + 1);
-                } else
-                    ret = new String[]{ cls };
-            } else
+            Cls _cls = getClass(cls);
+            int node = _cls == null ? findOuter(0, cls) : 0;
+            if (_cls != null)
                 ret = _cls.getNames();
+            else if (node == 0)
+                ret = new String[]{ cls };
+            else {
+                ClassTrie<Named> trie = column(0).trie();
+                ret = new String[this.names.size()];
+                for (int x = 0; x < ret.length; x++)
+                    ret[x] = replacePrefix(trie, node, x, cls);
+            }
             classCache.put(cls, ret);
         }
         return ret;
     }
 
     private String remapDescriptor(int index, String desc) {
-        Matcher matcher = MappingFile.DESC.matcher(desc);
-        StringBuffer buf = new StringBuffer();
-        while (matcher.find())
-            matcher.appendReplacement(buf, Matcher.quoteReplacement("L" + remapClass(index, matcher.group("cls")) + ";"));
-        matcher.appendTail(buf);
-        return buf.toString();
+        String[] ret = descCache.get(desc);
+        if (ret == null)
+            ret = descCache.computeIfAbsent(desc, k -> new String[this.names.size()]);
+        if (ret[index] == null)
+            ret[index] = InternalUtils.remapDescriptor(desc, cls -> remapClass(index, cls));
+        return ret[index];
     }
 
     // Accesses for converting to MappingFile
@@ -194,6 +276,11 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
     }
 
     Stream<Cls> getClasses() {
+        ClassIndex index = this.index;
+        if (index != null) {
+            index.loadAll();
+            this.index = null;
+        }
         return this.classes.values().stream();
     }
 
@@ -217,22 +304,207 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
 
     @Nullable
     Cls getClass(String name) {
-        return this.classes.get(name);
+        Cls ret = this.classes.get(name);
+        ClassIndex index = this.index;
+        if (ret == null && index != null) {
+            index.load(name);
+            ret = this.classes.get(name);
+            if (index.isEmpty()) // Every class has been read, so the file can be let go
+                this.index = null;
+        }
+        return ret;
+    }
+
+    void setIndex(ClassIndex index) {
+        this.index = index.isEmpty() ? null : index;
+    }
+
+    /*
+     * Views from getMap look nodes up by their name in the column they map from.
+     * Nodes are stored by the first column, the others are indexed the first time a view asks for one, and shared by every view from that column.
+     * So a file with n columns keeps at most n - 1 extra class indexes however many of its maps are used, members are only indexed for the classes looked up.
+     */
+    Collection<Package> getPackages(int column) {
+        return column == 0 ? this.packages.values() : column(column).packages.values();
+    }
+
+    @Nullable
+    Package getPackage(int column, String name) {
+        return column == 0 ? this.packages.get(name) : column(column).packages.get(name);
+    }
+
+    Collection<Cls> getClasses(int column) {
+        if (column != 0)
+            return column(column).classes.values();
+        getClasses();
+        return this.classes.values();
+    }
+
+    @Nullable
+    Cls getClass(int column, String name) {
+        return column == 0 ? getClass(name) : column(column).classes.get(name);
+    }
+
+    private Column column(int index) {
+        Column[] columns = this.columns;
+        Column ret = columns == null ? null : columns[index];
+        return ret != null ? ret : addColumn(index);
+    }
+
+    // The array is replaced rather than modified, so readers never see a half built one
+    private synchronized Column addColumn(int index) {
+        Column[] columns = this.columns == null ? new Column[this.names.size()] : this.columns.clone();
+        if (columns[index] == null) {
+            columns[index] = new Column(index);
+            this.columns = columns;
+        }
+        return columns[index];
+    }
+
+    private class Column {
+        private final int index;
+        @Nullable
+        private final Map<String, Package> packages; // Null for the first column, the nodes are already stored by it
+        @Nullable
+        private final Map<String, Cls> classes;
+        @Nullable
+        private volatile ClassTrie<Named> trie; // Only built once a name needs it, see findOuter
+
+        private Column(int index) {
+            this.index = index;
+            if (index == 0) {
+                this.packages = null;
+                this.classes = null;
+            } else {
+                this.packages = new HashMap<>();
+                this.classes = new HashMap<>();
+                NamedMappingFile.this.packages.values().forEach(pkg -> this.packages.put(pkg.getName(index), pkg));
+                NamedMappingFile.this.getClasses().forEach(cls -> this.classes.put(cls.getName(index), cls));
+            }
+        }
+
+        private ClassTrie<Named> trie() {
+            ClassTrie<Named> ret = this.trie;
+            if (ret == null) {
+                synchronized (this) {
+                    ret = this.trie;
+                    if (ret == null) {
+                        ret = new ClassTrie<>();
+                        for (Package pkg : getPackages(this.index))
+                            ret.putPackage(pkg.getName(this.index), pkg);
+                        for (Cls cls : getClasses(this.index))
+                            ret.putClass(cls.getName(this.index), cls);
+                        this.trie = ret;
+                    }
+                }
+            }
+            return ret;
+        }
+    }
+
+    /*
+     * Remaps a class name from one column to another. A class that isn't mapped itself takes its name from the innermost mapped class it is nested in,
+     * or if there is none, the innermost mapped package it is in, see ClassTrie.
+     */
+    String remapClass(int from, int to, String cls) {
+        Cls ret = getClass(from, cls);
+        if (ret != null)
+            return ret.getName(to);
+        int node = findOuter(from, cls);
+        return node == 0 ? cls : replacePrefix(column(from).trie(), node, to, cls);
+    }
+
+    String remapPackage(int from, int to, String pkg) {
+        Package ret = getPackage(from, pkg);
+        if (ret != null)
+            return ret.getName(to);
+        if (pkg.indexOf('/') == -1 || !hasPackages())
+            return pkg;
+        ClassTrie<Named> trie = column(from).trie();
+        int node = trie.findPackage(pkg);
+        return node == 0 ? pkg : replacePrefix(trie, node, to, pkg);
+    }
+
+    // Names without a '$' can only be moved by a package, if there are none the trie isn't needed, which would make a lazy file read every class
+    private int findOuter(int from, String cls) {
+        if (cls.indexOf('$') == -1 && (cls.indexOf('/') == -1 || !hasPackages()))
+            return 0;
+        return column(from).trie().find(cls);
+    }
+
+    private boolean hasPackages() {
+        int defaults = (this.packages.containsKey("") ? 1 : 0) + (this.packages.containsKey(".") ? 1 : 0);
+        return this.packages.size() > defaults;
+    }
+
+    private static String replacePrefix(ClassTrie<Named> trie, int node, int to, String name) {
+        String prefix = trie.get(node).getName(to);
+        int length = trie.length(node);
+        return new StringBuilder(prefix.length() + name.length() - length).append(prefix).append(name, length, name.length()).toString();
+    }
+
+    // Unordered formats are read in chunks, whose nodes belong to this file but are only added once merged, see MappingChunk
+    Package newPackage(String... names) {
+        ensureCount(names);
+        return new Package(names);
+    }
+
+    Cls newClass(String... names) {
+        ensureCount(names);
+        return new Cls(names);
+    }
+
+    void putPackage(Package value) {
+        this.packages.put(value.getName(0), value);
+    }
+
+    void putClass(Cls value) {
+        this.classes.put(value.getName(0), value);
     }
 
     abstract class Named {
+        @Nullable
         private final String[] names;
+        @Nullable
+        private final int[] handles; // Set instead of names if the file has a NamePool
+        @Nullable
+        private MetaMap meta; // Most nodes have none, so it's only created when needed
 
         Named(String... names) {
-            this.names = names;
+            NamePool pool = NamedMappingFile.this.pool;
+            this.names = pool == null ? names : null;
+            this.handles = pool == null ? null : pool.add(names);
         }
 
         public String getName(int index) {
-            return this.names[index];
+            return this.names != null ? this.names[index] : NamedMappingFile.this.pool.get(this.handles[index]);
         }
 
+        // The array is shared unless the names are pooled, so don't modify it
         String[] getNames() {
-            return this.names;
+            if (this.names != null)
+                return this.names;
+            String[] ret = new String[this.handles.length];
+            for (int x = 0; x < ret.length; x++)
+                ret[x] = getName(x);
+            return ret;
+        }
+
+        String[] selectNames(int[] order) {
+            String[] ret = new String[order.length];
+            for (int x = 0; x < order.length; x++)
+                ret[x] = getName(order[x]);
+            return ret;
+        }
+
+        Map<String, String> getMeta() {
+            return this.meta == null ? Collections.emptyMap() : this.meta;
+        }
+
+        void putMeta(String key, String value) {
+            if (this.meta == null)
+                this.meta = new MetaMap();
+            this.meta.put(key, value);
         }
 
         protected String getNames(int... order) {
@@ -246,8 +518,6 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
     }
 
     class Package extends Named implements IMappingBuilder.IPackage {
-        final Map<String, String> meta = new LinkedHashMap<>();
-
         Package(String... names) {
             super(names);
         }
@@ -279,7 +549,7 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
 
         @Override
         public IPackage meta(String key, String value) {
-            meta.put(key, value);
+            putMeta(key, value);
             return this;
         }
 
@@ -291,8 +561,9 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
 
     class Cls extends Named implements IMappingBuilder.IClass {
         private final Map<String, Field> fields = new HashMap<>();
-        private final Map<String, Method> methods = new HashMap<>();
-        final Map<String, String> meta = new LinkedHashMap<>();
+        private final MethodTable<Method> methods = new MethodTable<>();
+        @Nullable
+        private volatile Members[] columns; // Members by their other names, built the same way as the file's Columns
 
         Cls(String... name) {
             super(name);
@@ -306,6 +577,78 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
             return this.methods.values().stream();
         }
 
+        Collection<Field> getFields(int column) {
+            return column == 0 ? this.fields.values() : members(column).fields.values();
+        }
+
+        @Nullable
+        Field getField(int column, String name) {
+            return column == 0 ? this.fields.get(name) : members(column).fields.get(name);
+        }
+
+        Collection<Method> getMethods(int column) {
+            return column == 0 ? this.methods.values() : members(column).methods.values();
+        }
+
+        @Nullable
+        Method getMethod(int column, String name, String desc) {
+            return column == 0 ? this.methods.get(name, desc) : members(column).methods.get(name, desc);
+        }
+
+        private Members members(int index) {
+            Members[] columns = this.columns;
+            Members ret = columns == null ? null : columns[index];
+            return ret != null ? ret : addMembers(index);
+        }
+
+        private synchronized Members addMembers(int index) {
+            Members[] columns = this.columns == null ? new Members[NamedMappingFile.this.names.size()] : this.columns.clone();
+            if (columns[index] == null) {
+                columns[index] = new Members(index);
+                this.columns = columns;
+            }
+            return columns[index];
+        }
+
+        private class Members {
+            private final Map<String, Field> fields = new HashMap<>();
+            private final MethodTable<Method> methods = new MethodTable<>();
+
+            private Members(int index) {
+                Cls.this.fields.values().forEach(fld -> this.fields.put(fld.getName(index), fld));
+                Cls.this.methods.values().forEach(mtd -> this.methods.put(mtd.getName(index), mtd.getDescriptor(index), mtd));
+            }
+        }
+
+        /*
+         * Copies the members of another class into this one, if replace is false members that are already here are kept.
+         */
+        void merge(Cls other, boolean replace) {
+            other.getMeta().forEach((k, v) -> {
+                if (replace || !getMeta().containsKey(k))
+                    putMeta(k, v);
+            });
+
+            for (Field fld : other.fields.values()) {
+                if (replace || !this.fields.containsKey(fld.getName(0))) {
+                    Field copy = field(fld.getNames());
+                    copy.desc = fld.desc;
+                    fld.getMeta().forEach(copy::putMeta);
+                }
+            }
+
+            for (Method mtd : other.methods.values()) {
+                if (replace || !this.methods.containsKey(mtd.getName(0), mtd.desc)) {
+                    Method copy = method(mtd.desc, mtd.getNames());
+                    mtd.getMeta().forEach(copy::putMeta);
+                    for (Method.Parameter par : mtd.params.values()) {
+                        Method.Parameter param = copy.parameter(par.getIndex(), par.getNames());
+                        par.getMeta().forEach(param::putMeta);
+                    }
+                }
+            }
+        }
+
         @Override
         public Field field(String... names) {
             ensureCount(names);
@@ -315,12 +658,14 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
         @Override
         public Method method(String desc, String... names) {
             ensureCount(names);
-            return retPut(this.methods, names[0] + desc, new Method(desc, names));
+            Method ret = new Method(desc, names);
+            this.methods.put(names[0], desc, ret);
+            return ret;
         }
 
         @Override
         public IClass meta(String key, String value) {
-            this.meta.put(key, value);
+            putMeta(key, value);
             return this;
         }
 
@@ -357,7 +702,6 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
         class Field extends Named implements IMappingBuilder.IField {
             @Nullable
             private String desc;
-            final Map<String, String> meta = new LinkedHashMap<>();
 
             Field(String... names) {
                 super(names);
@@ -375,7 +719,7 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
 
             @Override
             public IField meta(String key, String value) {
-                this.meta.put(key, value);
+                putMeta(key, value);
                 return this;
             }
 
@@ -414,8 +758,7 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
 
         class Method extends Named implements IMappingBuilder.IMethod {
             private final String desc;
-            private final Map<Integer, Parameter> params = new HashMap<>();
-            final Map<String, String> meta = new LinkedHashMap<>();
+            private final ParameterTable<Parameter> params = new ParameterTable<>();
 
             Method(String desc, String... names) {
                 super(names);
@@ -423,14 +766,16 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
             }
 
             @Override
-            public IParameter parameter(int index, String... names) {
+            public Parameter parameter(int index, String... names) {
                 ensureCount(names);
-                return retPut(this.params, index, new Parameter(index, names));
+                Parameter ret = new Parameter(index, names);
+                this.params.put(index, ret);
+                return ret;
             }
 
             @Override
             public IMethod meta(String key, String value) {
-                this.meta.put(key, value);
+                putMeta(key, value);
                 return this;
             }
 
@@ -443,8 +788,13 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
                 return index == 0 ? this.desc : NamedMappingFile.this.remapDescriptor(index, this.desc);
             }
 
-            Stream<Parameter> getParameters() {
-                return this.params.values().stream();
+            Collection<Parameter> getParameters() {
+                return this.params.values();
+            }
+
+            @Nullable
+            Parameter getParameter(int index) {
+                return this.params.get(index);
             }
 
             @Override
@@ -463,8 +813,8 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
                     case TINY1: return "METHOD\t" + oOwner + '\t' + oDesc + getNames(order);
                     case TINY: return "\tm\t" + oDesc + getNames(order);
                     case PG:
-                        int start = Integer.parseInt(meta.getOrDefault("start_line", "0"));
-                        int end = Integer.parseInt(meta.getOrDefault("end_line", "0"));
+                        int start = Integer.parseInt(getMeta().getOrDefault("start_line", "0"));
+                        int end = Integer.parseInt(getMeta().getOrDefault("end_line", "0"));
                         return "    " + (start == 0 && end == 0 ? "" : start + ":" + end + ":") + InternalUtils.toSource(oName, oDesc) + " -> " + mName;
                     default: throw new UnsupportedOperationException("Unknown format: " + format);
                 }
@@ -484,7 +834,6 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
 
             class Parameter extends Named implements IMappingBuilder.IParameter {
                 private final int index;
-                final Map<String, String> meta = new LinkedHashMap<>();
 
                 Parameter(int index, String... names) {
                     super(names);
@@ -520,7 +869,7 @@ class NamedMappingFile implements INamedMappingFile, IMappingBuilder {
 
                 @Override
                 public IParameter meta(String key, String value) {
-                    this.meta.put(key, value);
+                    putMeta(key, value);
                     return this;
                 }
 
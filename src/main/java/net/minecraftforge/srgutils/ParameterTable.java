@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.jetbrains.annotations.Nullable;
+
+/*
+ * The parameters of a method, keyed by their index. Indexes are local variable slots, so they are small and a method rarely has more than a handful.
+ * They are kept sorted in a plain int array and found by binary search, which avoids boxing the index and a hash entry for every parameter,
+ * and means the values are already in index order when they are written.
+ *
+ * Nothing is allocated until the first parameter is added, most methods never have any.
+ */
+class ParameterTable<V> {
+    private static final int[] NO_INDEXES = new int[0];
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private int[] indexes = NO_INDEXES;
+    private Object[] values = NO_VALUES;
+    private int size;
+
+    int size() {
+        return this.size;
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    V get(int index) {
+        int pos = Arrays.binarySearch(this.indexes, 0, this.size, index);
+        return pos < 0 ? null : (V)this.values[pos];
+    }
+
+    void put(int index, V value) {
+        int pos = Arrays.binarySearch(this.indexes, 0, this.size, index);
+        if (pos >= 0) {
+            this.values[pos] = value;
+            return;
+        }
+
+        pos = -pos - 1;
+        if (this.size == this.indexes.length) {
+            int capacity = Math.max(4, this.size * 2);
+            this.indexes = Arrays.copyOf(this.indexes, capacity);
+            this.values = Arrays.copyOf(this.values, capacity);
+        }
+        System.arraycopy(this.indexes, pos, this.indexes, pos + 1, this.size - pos);
+        System.arraycopy(this.values, pos, this.values, pos + 1, this.size - pos);
+        this.indexes[pos] = index;
+        this.values[pos] = value;
+        this.size++;
+    }
+
+    /*
+     * A read only view of the values, in index order.
+     * Not kept in a field, there is one table for every method so the view would cost more than creating it when asked.
+     */
+    Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public int size() {
+                return ParameterTable.this.size;
+            }
+
+            @Override
+            public Iterator<V> iterator() {
+                return new Iterator<V>() {
+                    private int next;
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.next < ParameterTable.this.size;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public V next() {
+                        if (!hasNext())
+                            throw new NoSuchElementException();
+                        return (V)ParameterTable.this.values[this.next++];
+                    }
+                };
+            }
+        };
+    }
+}
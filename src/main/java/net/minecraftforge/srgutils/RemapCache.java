@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.jetbrains.annotations.Nullable;
+
+/*
+ * Remembers remapped class names, optionally bounded in size.
+ * Once a bounded cache is full, entries are evicted using CLOCK, an approximation of least recently used:
+ * every hit marks its entry, and the hand sweeps round the entries clearing marks until it finds one that hasn't been used since the last pass.
+ *
+ * Keys are spread over segments which are locked on their own, so threads remapping different classes rarely wait on each other.
+ * Values are computed outside of the lock, remapping inner classes looks up their outer class, which can be in another segment.
+ */
+class RemapCache<V> {
+    static final int DEFAULT_CAPACITY = 1 << 16; // Far more classes than a large jar and the libraries it references, a few MB at most
+    private static final int SEGMENTS = 16;
+
+    private final int capacity;
+    private final Segment<V>[] segments;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /*
+     * A capacity of zero or less is unbounded.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    RemapCache(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        // Small caches get fewer segments, so each is big enough for CLOCK to have a choice of what to evict
+        int count = this.capacity == 0 ? SEGMENTS : Math.max(1, Math.min(SEGMENTS, this.capacity / 64));
+        int size = this.capacity == 0 ? Integer.MAX_VALUE : (this.capacity + count - 1) / count;
+        this.segments = (Segment<V>[])new Segment[count];
+        for (int x = 0; x < count; x++)
+            this.segments[x] = new Segment<>(size);
+    }
+
+    @Nullable
+    V get(String key) {
+        V ret = segment(key).get(key);
+        (ret == null ? this.misses : this.hits).increment();
+        return ret;
+    }
+
+    void put(String key, V value) {
+        if (segment(key).put(key, value))
+            this.evictions.increment();
+    }
+
+    private Segment<V> segment(String key) {
+        int hash = key.hashCode();
+        hash ^= hash >>> 16;
+        return this.segments[(hash & 0x7FFFFFFF) % this.segments.length];
+    }
+
+    CacheStats getStats() {
+        int size = 0;
+        for (Segment<V> segment : this.segments)
+            size += segment.size();
+        return new CacheStats(this.capacity, size, this.hits.sum(), this.misses.sum(), this.evictions.sum());
+    }
+
+    private static class Segment<V> {
+        private final int capacity;
+        private final Map<String, Entry<V>> index = new HashMap<>();
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private Entry<V>[] ring = (Entry<V>[])new Entry[16];
+        private int size;
+        private int hand;
+
+        private Segment(int capacity) {
+            this.capacity = capacity;
+        }
+
+        @Nullable
+        synchronized V get(String key) {
+            Entry<V> entry = this.index.get(key);
+            if (entry == null)
+                return null;
+            entry.referenced = true;
+            return entry.value;
+        }
+
+        /*
+         * Returns true if another entry was evicted to make room.
+         */
+        synchronized boolean put(String key, V value) {
+            Entry<V> entry = this.index.get(key);
+            if (entry != null) { // Another thread got here first, keep the first result so callers see the same instance
+                entry.referenced = true;
+                return false;
+            }
+
+            entry = new Entry<>(key, value);
+            this.index.put(key, entry);
+
+            if (this.capacity == Integer.MAX_VALUE) { // Unbounded, nothing is evicted so the ring isn't needed
+                this.size++;
+                return false;
+            }
+
+            if (this.size < this.capacity) {
+                if (this.size == this.ring.length)
+                    this.ring = Arrays.copyOf(this.ring, (int)Math.min(this.capacity, this.ring.length * 2L));
+                this.ring[this.size++] = entry;
+                return false;
+            }
+
+            while (this.ring[this.hand].referenced) {
+                this.ring[this.hand].referenced = false;
+                this.hand = (this.hand + 1) % this.size;
+            }
+            this.index.remove(this.ring[this.hand].key);
+            this.ring[this.hand] = entry;
+            this.hand = (this.hand + 1) % this.size;
+            return true;
+        }
+
+        synchronized int size() {
+            return this.size;
+        }
+    }
+
+    private static class Entry<V> {
+        private final String key;
+        private final V value;
+        private boolean referenced;
+
+        private Entry(String key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.Nullable;
+
+/*
+ * Where each class is in a text file opened with LoadOptions.lazy().
+ * In the ordered formats every line that isn't indented starts a block, which holds it and the member lines under it.
+ * Blocks are found by looking at the first field of those lines, nothing else is decoded until the class is needed.
+ * Blocks that don't belong to a class, such as packages, are read straight away.
+ *
+ * A class can have several blocks, TSRG allows a class to be split, and in CSRG every member line is its own block.
+ * They are read in file order into a single chunk, so the class ends up the same as if the whole file had been read.
+ */
+class TextClassIndex implements ClassIndex {
+    private final NamedMappingFile owner;
+    private final LineReader reader;
+    private final InternalUtils.BodyReader body;
+    private final Map<String, int[]> blocks = new HashMap<>(); // [start, end) pairs, in file order
+
+    private TextClassIndex(NamedMappingFile owner, LineReader reader, InternalUtils.BodyReader body) {
+        this.owner = owner;
+        this.reader = reader;
+        this.body = body;
+    }
+
+    /*
+     * Indexes the rest of the reader, which has to be in memory.
+     * The key gives the class a top level line belongs to, or null if it isn't part of one.
+     */
+    static TextClassIndex build(NamedMappingFile owner, LineReader reader, InternalUtils.BodyReader body, InternalUtils.ClassKey key) throws IOException {
+        TextClassIndex ret = new TextClassIndex(owner, reader, body);
+        MappingChunk eager = new MappingChunk(owner);
+
+        String name = null; // Anything before the first top level line is read now, so errors are still thrown
+        int start = reader.position();
+        Tokenizer line;
+        while ((line = reader.next(false)) != null) {
+            byte first = line.byteAt(0);
+            if (first == '\t' || first == ' ' || first == '#') // Members belong to the block above, comments to nothing
+                continue;
+            int end = reader.lineStart();
+            ret.add(name, start, end, eager);
+            name = key.get(line);
+            start = end;
+        }
+        ret.add(name, start, reader.end(), eager);
+
+        MappingChunk.merge(owner, Collections.singletonList(eager), null);
+        return ret;
+    }
+
+    private void add(@Nullable String name, int start, int end, MappingChunk eager) throws IOException {
+        if (start == end)
+            return;
+
+        if (name == null) {
+            this.body.read(this.reader.slice(start, end), eager, false);
+            return;
+        }
+
+        int[] ranges = this.blocks.get(name);
+        if (ranges == null)
+            this.blocks.put(name, new int[] { start, end });
+        else if (ranges[ranges.length - 1] == start) // Runs of CSRG lines with the same owner are one block
+            ranges[ranges.length - 1] = end;
+        else {
+            ranges = Arrays.copyOf(ranges, ranges.length + 2);
+            ranges[ranges.length - 2] = start;
+            ranges[ranges.length - 1] = end;
+            this.blocks.put(name, ranges);
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        synchronized (this.blocks) {
+            return this.blocks.isEmpty();
+        }
+    }
+
+    @Override
+    public void load(String name) {
+        synchronized (this.blocks) {
+            int[] ranges = this.blocks.get(name);
+            if (ranges == null)
+                return;
+
+            read(Collections.singletonList(ranges));
+            this.blocks.remove(name);
+        }
+    }
+
+    @Override
+    public void loadAll() {
+        synchronized (this.blocks) {
+            if (this.blocks.isEmpty())
+                return;
+
+            List<int[]> ranges = new ArrayList<>(this.blocks.values());
+            ranges.sort((a, b) -> Integer.compare(a[0], b[0]));
+            read(ranges);
+            this.blocks.clear();
+        }
+    }
+
+    private void read(List<int[]> ranges) {
+        MappingChunk chunk = new MappingChunk(this.owner);
+        try {
+            for (int[] range : ranges) {
+                for (int x = 0; x < range.length; x += 2)
+                    this.body.read(this.reader.slice(range[x], range[x + 1]), chunk, false);
+            }
+            MappingChunk.merge(this.owner, Collections.singletonList(chunk), null);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * A cursor over a single line of UTF-8 encoded bytes.
+ * Fields are walked in place, and only the ones the caller asks for are decoded into Strings.
+ * This replaces String.split in the loaders, so reading a line does not allocate any arrays.
+ *
+ * The line is [start, end) of the buffer, the current field is [from, to).
+ * Instances are reused for every line read, so fields must be copied out before the next line is requested.
+ */
+final class Tokenizer {
+    private ByteBuffer buf;
+    private int start;
+    private int end;
+    private int pos;
+    private int from;
+    private int to;
+    private byte[] scratch = new byte[64];
+
+    void reset(ByteBuffer buf, int start, int end) {
+        this.buf = buf;
+        this.start = start;
+        this.end = end;
+        this.pos = start;
+        this.from = start;
+        this.to = start;
+    }
+
+    /*
+     * Moves the cursor back to the start of the line.
+     */
+    Tokenizer rewind() {
+        this.pos = this.from = this.to = this.start;
+        return this;
+    }
+
+    int length() {
+        return this.end - this.start;
+    }
+
+    boolean isEmpty() {
+        return this.end == this.start;
+    }
+
+    byte byteAt(int index) {
+        return this.buf.get(this.start + index);
+    }
+
+    boolean startsWith(String prefix) {
+        return regionMatches(this.start, this.end, prefix, false);
+    }
+
+    boolean endsWith(char chr) {
+        return this.end != this.start && this.buf.get(this.end - 1) == chr;
+    }
+
+    boolean contains(String value) {
+        for (int x = this.start; x <= this.end - value.length(); x++) {
+            if (regionMatches(x, this.end, value, false))
+                return true;
+        }
+        return false;
+    }
+
+    /*
+     * Consumes all leading instances of chr, and returns how many there were.
+     */
+    int skip(char chr) {
+        int ret = 0;
+        while (this.pos < this.end && this.buf.get(this.pos) == chr) {
+            this.pos++;
+            ret++;
+        }
+        return ret;
+    }
+
+    boolean hasNext() {
+        return this.pos <= this.end;
+    }
+
+    /*
+     * Advances to the next field separated by sep, returns false if there are no more fields.
+     */
+    boolean next(char sep) {
+        if (this.pos > this.end)
+            return false;
+        this.from = this.pos;
+        int x = this.pos;
+        while (x < this.end && this.buf.get(x) != sep)
+            x++;
+        this.to = x;
+        this.pos = x + 1;
+        return true;
+    }
+
+    /*
+     * Advances to the next field, throwing if there is none. Used when the field count has already been validated.
+     */
+    Tokenizer nextField(char sep) {
+        if (!next(sep))
+            throw new IllegalStateException("Missing field in line: " + this);
+        return this;
+    }
+
+    /*
+     * Number of fields left on the line, matching the semantics of String.split, so trailing empty fields are not counted.
+     */
+    int count(char sep) {
+        if (this.pos > this.end)
+            return 0;
+        int last = this.end;
+        while (last > this.pos && this.buf.get(last - 1) == sep)
+            last--;
+        if (last == this.pos)
+            return this.pos == this.end ? 1 : 0;
+        int ret = 1;
+        for (int x = this.pos; x < last; x++) {
+            if (this.buf.get(x) == sep)
+                ret++;
+        }
+        return ret;
+    }
+
+    /*
+     * Decodes the current field
+     */
+    String get() {
+        return decode(this.from, this.to);
+    }
+
+    /*
+     * Decodes part of the current field, offsets are relative to the start of the field.
+     */
+    String get(int from, int to) {
+        return decode(this.from + from, this.from + to);
+    }
+
+    int fieldLength() {
+        return this.to - this.from;
+    }
+
+    byte fieldByte(int index) {
+        return this.buf.get(this.from + index);
+    }
+
+    /*
+     * Index of the last instance of chr in the current field, relative to the start of the field.
+     */
+    int lastIndexOf(char chr) {
+        for (int x = this.to - 1; x >= this.from; x--) {
+            if (this.buf.get(x) == chr)
+                return x - this.from;
+        }
+        return -1;
+    }
+
+    /*
+     * Index of the first instance of chr in the current field at or after from, both relative to the start of the field.
+     */
+    int indexOf(char chr, int from) {
+        for (int x = this.from + from; x < this.to; x++) {
+            if (this.buf.get(x) == chr)
+                return x - this.from;
+        }
+        return -1;
+    }
+
+    /*
+     * Compares the current field to an ASCII value without decoding it.
+     */
+    boolean is(String value) {
+        return regionMatches(this.from, this.to, value, true);
+    }
+
+    boolean is(int from, int to, String value) {
+        return regionMatches(this.from + from, this.from + to, value, true);
+    }
+
+    int getInt() {
+        return parseInt(this.from, this.to);
+    }
+
+    int getInt(int from, int to) {
+        return parseInt(this.from + from, this.from + to);
+    }
+
+    /*
+     * Removes a trailing comment, and any trailing spaces from the line, the same way InternalUtils.stripComment does.
+     */
+    void stripComment() {
+        int idx = -1;
+        for (int x = this.start; x < this.end; x++) {
+            if (this.buf.get(x) == '#') {
+                idx = x;
+                break;
+            }
+        }
+        if (idx == this.start) {
+            this.end = this.start;
+        } else {
+            if (idx != -1)
+                this.end = idx - 1;
+            while (this.end > this.start + 1 && this.buf.get(this.end - 1) == ' ')
+                this.end--;
+        }
+        this.pos = this.from = this.to = this.start;
+    }
+
+    private boolean regionMatches(int from, int to, String value, boolean exact) {
+        int len = value.length();
+        if (exact ? to - from != len : to - from < len)
+            return false;
+        for (int x = 0; x < len; x++) {
+            if (this.buf.get(from + x) != value.charAt(x))
+                return false;
+        }
+        return true;
+    }
+
+    private int parseInt(int from, int to) {
+        if (from == to)
+            throw new NumberFormatException("Empty number in line: " + this);
+        boolean negative = this.buf.get(from) == '-';
+        int ret = 0;
+        for (int x = negative ? from + 1 : from; x < to; x++) {
+            int digit = this.buf.get(x) - '0';
+            if (digit < 0 || digit > 9)
+                throw new NumberFormatException("Invalid number \"" + decode(from, to) + "\" in line: " + this);
+            ret = ret * 10 + digit;
+        }
+        return negative ? -ret : ret;
+    }
+
+    private String decode(int from, int to) {
+        int len = to - from;
+        if (len == 0)
+            return "";
+        if (this.buf.hasArray())
+            return new String(this.buf.array(), this.buf.arrayOffset() + from, len, StandardCharsets.UTF_8);
+        if (this.scratch.length < len)
+            this.scratch = new byte[Math.max(len, this.scratch.length * 2)];
+        for (int x = 0; x < len; x++)
+            this.scratch[x] = this.buf.get(from + x);
+        return new String(this.scratch, 0, len, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return decode(this.start, this.end);
+    }
+}
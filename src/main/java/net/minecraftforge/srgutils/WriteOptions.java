@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jetbrains.annotations.Nullable;
+
+/*
+ * Controls how IMappingFile.write and INamedMappingFile.write produce a file.
+ */
+public final class WriteOptions {
+    private static final WriteOptions DEFAULT = new WriteOptions(null);
+
+    @Nullable
+    private final ForkJoinPool pool;
+
+    private WriteOptions(@Nullable ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /*
+     * Writes the file on the calling thread, the same as writing without options.
+     */
+    public static WriteOptions defaults() {
+        return DEFAULT;
+    }
+
+    /*
+     * Turns classes into text on the given pool, and sorts the lines of the unordered formats on it where that can't change the result.
+     * The output is exactly the same as writing on a single thread, but every line is held in memory until it is written.
+     */
+    public static WriteOptions parallel(ForkJoinPool pool) {
+        return new WriteOptions(Objects.requireNonNull(pool, "pool"));
+    }
+
+    @Nullable
+    ForkJoinPool getPool() {
+        return this.pool;
+    }
+}
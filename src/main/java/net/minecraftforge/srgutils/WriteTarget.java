@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) Forge Development LLC and contributors
+ * SPDX-License-Identifier: LGPL-2.1-only
+ */
+package net.minecraftforge.srgutils;
+
+import java.nio.file.Path;
+import java.util.Objects;
+
+import net.minecraftforge.srgutils.IMappingFile.Format;
+
+/*
+ * One of the files written by IMappingFile.write(Collection, WriteOptions).
+ */
+public final class WriteTarget {
+    private final Path path;
+    private final Format format;
+    private final boolean reversed;
+
+    private WriteTarget(Path path, Format format, boolean reversed) {
+        this.path = path;
+        this.format = format;
+        this.reversed = reversed;
+    }
+
+    public static WriteTarget of(Path path, Format format, boolean reversed) {
+        return new WriteTarget(Objects.requireNonNull(path, "path"), Objects.requireNonNull(format, "format"), reversed);
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    public Format getFormat() {
+        return this.format;
+    }
+
+    public boolean isReversed() {
+        return this.reversed;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteTarget[" + path + ", " + format + (reversed ? ", reversed]" : "]");
+    }
+}
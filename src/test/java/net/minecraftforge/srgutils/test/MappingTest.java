@@ -5,25 +5,43 @@
 package net.minecraftforge.srgutils.test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 
+import net.minecraftforge.srgutils.CacheStats;
 import net.minecraftforge.srgutils.IMappingBuilder;
 import net.minecraftforge.srgutils.IMappingFile;
 import net.minecraftforge.srgutils.IMappingFile.Format;
 import net.minecraftforge.srgutils.IMappingFile.IClass;
 import net.minecraftforge.srgutils.IMappingFile.IField;
 import net.minecraftforge.srgutils.IMappingFile.IMethod;
+import net.minecraftforge.srgutils.IMappingFile.IParameter;
+import net.minecraftforge.srgutils.IMappingVisitor;
+import net.minecraftforge.srgutils.IRenamer;
 import net.minecraftforge.srgutils.INamedMappingFile;
+import net.minecraftforge.srgutils.LoadOptions;
+import net.minecraftforge.srgutils.WriteOptions;
+import net.minecraftforge.srgutils.WriteTarget;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -55,6 +73,25 @@ public class MappingTest {
         writer.accept(file);
         return Files.readAllLines(file, StandardCharsets.UTF_8);
     }
+
+    // Writes both files in every format given, the output should be the same byte for byte
+    void assertWritesMatch(String name, IMappingFile expected, IMappingFile actual, boolean reverse, Format... formats) throws IOException {
+        for (Format format : formats)
+            assertWritesMatch(name + '.' + format.name().toLowerCase(Locale.ENGLISH), path -> expected.write(path, format, reverse), path -> actual.write(path, format, reverse));
+    }
+
+    void assertWritesMatch(String name, INamedMappingFile expected, INamedMappingFile actual, Format... formats) throws IOException {
+        for (Format format : formats)
+            assertWritesMatch(name + '.' + format.name().toLowerCase(Locale.ENGLISH), path -> expected.write(path, format), path -> actual.write(path, format));
+    }
+
+    private void assertWritesMatch(String name, ErroringConsumer<Path> expected, ErroringConsumer<Path> actual) throws IOException {
+        Path expectedFile = temp.resolve("expected_" + name);
+        Path actualFile = temp.resolve("actual_" + name);
+        expected.accept(expectedFile);
+        actual.accept(actualFile);
+        assertArrayEquals(Files.readAllBytes(expectedFile), Files.readAllBytes(actualFile), "Output did not match for " + name);
+    }
 
     @Test
     void test() throws IOException {
@@ -193,6 +230,729 @@ public class MappingTest {
         );
     }
 
+    @Test
+    void csrgMembersBeforeClass() throws IOException {
+        byte[] data = String.join("\n",
+            "# Leading comment",
+            "",
+            "a/A fld newFld",
+            "a/A mtd ()V newMtd",
+            "a/A b/B",
+            "c/C fld newFld"
+        ).getBytes(StandardCharsets.UTF_8);
+
+        IMappingFile map = IMappingFile.load(new ByteArrayInputStream(data));
+
+        IClass cls = map.getClass("a/A");
+        assertNotNull(cls, "Missing class");
+        assertEquals("b/B", cls.getMapped());
+        assertEquals("newFld", cls.remapField("fld"));
+        assertEquals("newMtd", cls.remapMethod("mtd", "()V"));
+
+        IClass identity = map.getClass("c/C");
+        assertNotNull(identity, "Missing identity class");
+        assertEquals("c/C", identity.getMapped());
+        assertEquals("newFld", identity.remapField("fld"));
+    }
+
+    @Test
+    void srgMembersBeforeClass() throws IOException {
+        byte[] data = String.join("\n",
+            "FD: a/A/fld b/B/newFld",
+            "MD: a/A/mtd ()V b/B/newMtd ()V",
+            "CL: a/A b/B",
+            "FD: c/C/fld c/C/newFld"
+        ).getBytes(StandardCharsets.UTF_8);
+
+        IMappingFile map = IMappingFile.load(new ByteArrayInputStream(data));
+
+        IClass cls = map.getClass("a/A");
+        assertNotNull(cls, "Missing class");
+        assertEquals("b/B", cls.getMapped());
+        assertEquals("newFld", cls.remapField("fld"), "Field listed before its class was lost");
+        assertEquals("newMtd", cls.remapMethod("mtd", "()V"), "Method listed before its class was lost");
+
+        IClass identity = map.getClass("c/C");
+        assertNotNull(identity, "Missing identity class");
+        assertEquals("c/C", identity.getMapped());
+        assertEquals("newFld", identity.remapField("fld"));
+    }
+
+    @Test
+    void parallelLoad() throws IOException {
+        IMappingBuilder builder = IMappingBuilder.create("left", "right");
+        for (int x = 0; x < 5000; x++) {
+            builder.addClass("in/C" + x, "out/C" + x)
+                .field("f" + x, "field_" + x).descriptor("Lin/C" + (x + 1) + ';').build()
+                .method("(Lin/C" + x + ";)V", "m" + x, "method_" + x);
+        }
+        IMappingFile map = builder.build().getMap("left", "right");
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (Format format : new Format[] { Format.SRG, Format.XSRG, Format.CSRG, Format.TINY1 }) {
+                Path path = temp.resolve("parallel." + format.name().toLowerCase(Locale.ENGLISH));
+                map.write(path, format, false);
+
+                IMappingFile sequential = IMappingFile.load(path.toFile());
+                IMappingFile parallel = IMappingFile.load(path.toFile(), LoadOptions.parallel(pool));
+                assertEquals("out/C4321", parallel.remapClass("in/C4321"));
+                assertWritesMatch("parallel", sequential, parallel, false, format);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void parallelLoadUnordered() throws IOException {
+        // Shuffled, so members come before their class, every class is spread over several chunks, and some lines are repeated with new names
+        List<String> srg = new ArrayList<>();
+        List<String> csrg = new ArrayList<>();
+        for (int x = 0; x < 3000; x++) {
+            String in = "in/C" + x;
+            String out = "out/C" + x;
+            String ref = "in/C" + (x * 7 % 3000);
+            String mappedRef = "out/C" + (x * 7 % 3000);
+            srg.add("CL: " + in + ' ' + out);
+            csrg.add(in + ' ' + out);
+            for (String fld : new String[] { "f0", "f1" }) {
+                srg.add("FD: " + in + '/' + fld + " I " + out + "/field_" + x + '_' + fld + " I");
+                csrg.add(in + ' ' + fld + " field_" + x + '_' + fld);
+            }
+            String[][] overloads = { { "(I)V", "(I)V" }, { "(J)V", "(J)V" }, { "(L" + ref + ";)V", "(L" + mappedRef + ";)V" } };
+            for (int y = 0; y < overloads.length; y++) {
+                srg.add("MD: " + in + "/m0 " + overloads[y][0] + ' ' + out + "/func_" + x + '_' + y + ' ' + overloads[y][1]);
+                csrg.add(in + " m0 " + overloads[y][0] + " func_" + x + '_' + y);
+            }
+            if (x % 100 == 0) {
+                srg.add("FD: " + in + "/f0 I " + out + "/renamed_" + x + " I");
+                csrg.add(in + " f0 renamed_" + x);
+            }
+        }
+        Collections.shuffle(srg, new Random(42));
+        Collections.shuffle(csrg, new Random(42));
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (String name : new String[] { "unordered.xsrg", "unordered.csrg" }) {
+                Path path = temp.resolve(name);
+                boolean slim = name.endsWith(".csrg");
+                Files.write(path, slim ? csrg : srg, StandardCharsets.UTF_8);
+
+                IMappingFile sequential = IMappingFile.load(path);
+                IMappingFile parallel = IMappingFile.load(path, LoadOptions.parallel(pool));
+                // CSRG has no field descriptors, so it can only be written to the formats that don't need them
+                assertWritesMatch(name, sequential, parallel, false, slim ? new Format[] { Format.SRG, Format.CSRG, Format.TSRG } : Format.values());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void errorLineNumbers() throws IOException {
+        StringBuilder tiny1 = new StringBuilder("v1\tleft\tright\r\n\r\n");
+        for (int x = 0; x < 5000; x++)
+            tiny1.append("CLASS\tin/C").append(x).append("\tout/C").append(x).append("\r\n");
+        tiny1.append("CLASS\tin/Bad\r\n");
+        Path path = temp.resolve("error.tiny1");
+        Files.write(path, tiny1.toString().getBytes(StandardCharsets.UTF_8));
+
+        IOException sequential = assertThrows(IOException.class, () -> IMappingFile.load(path));
+        assertTrue(sequential.getMessage().startsWith("Invalid Tiny v1 line: #5003: "), sequential.getMessage());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            IOException parallel = assertThrows(IOException.class, () -> IMappingFile.load(path, LoadOptions.parallel(pool)));
+            assertEquals(sequential.getMessage(), parallel.getMessage());
+        } finally {
+            pool.shutdown();
+        }
+
+        Path tiny2 = temp.resolve("error.tiny");
+        Files.write(tiny2, "tiny\t2\t0\tleft\tright\nc\tin/A\tout/A\n\tf\tI\tf\tfield\n\nc\tin/B\tout/B\n\tf\tI\tf\n".getBytes(StandardCharsets.UTF_8));
+        IOException eager = assertThrows(IOException.class, () -> IMappingFile.load(tiny2));
+        assertTrue(eager.getMessage().startsWith("Invalid Tiny v2 line: #6: "), eager.getMessage());
+        IMappingFile lazy = IMappingFile.load(tiny2, LoadOptions.lazy());
+        assertEquals("out/A", lazy.remapClass("in/A"));
+        UncheckedIOException unchecked = assertThrows(UncheckedIOException.class, () -> lazy.getClass("in/B"));
+        assertEquals(eager.getMessage(), unchecked.getCause().getMessage());
+    }
+
+    @Test
+    void pathLoad() throws IOException {
+        IMappingFile pg = IMappingFile.load(getStream("./installer.pg"));
+        for (Format format : Format.values()) {
+            for (String ext : new String[] { "", ".gz" }) {
+                String name = "path." + format.name().toLowerCase(Locale.ENGLISH);
+                Path path = temp.resolve(name + ext);
+                pg.write(path, format, false);
+
+                Format text = format == Format.BINARY ? Format.TINY : format;
+                assertWritesMatch(name + ext, IMappingFile.load(path.toFile()), IMappingFile.load(path), false, text);
+            }
+        }
+    }
+
+    @Test
+    void visitor() throws IOException {
+        IMappingFile map = IMappingFile.load(getStream("./installer.pg"));
+        int[] counts = new int[3];
+        IMappingVisitor.visit(getStream("./installer.pg"), new IMappingVisitor() {
+            @Override
+            public void visitHeader(String... names) {
+                assertArrayEquals(new String[] { "left", "right" }, names);
+            }
+
+            @Override public void visitPackage(String... names) {}
+            @Override public void visitClass(String... names) { counts[0]++; }
+            @Override public void visitField(String desc, String... names) { counts[1]++; }
+            @Override public void visitMethod(String desc, String... names) { counts[2]++; }
+            @Override public void visitParameter(int index, String... names) {}
+            @Override public void visitMeta(IMappingVisitor.Element element, String key, String value) {}
+        });
+
+        assertEquals(map.getClasses().size(), counts[0]);
+        assertEquals(map.getClasses().stream().mapToInt(c -> c.getFields().size()).sum(), counts[1]);
+        assertEquals(map.getClasses().stream().mapToInt(c -> c.getMethods().size()).sum(), counts[2]);
+    }
+
+    @Test
+    void lazyLoad() throws IOException {
+        IMappingFile pg = IMappingFile.load(getStream("./installer.pg"));
+        for (Format format : new Format[] { Format.PG, Format.TSRG, Format.TSRG2, Format.CSRG, Format.TINY }) {
+            String name = "lazy." + format.name().toLowerCase(Locale.ENGLISH);
+            Path path = temp.resolve(name);
+            pg.write(path, format, false);
+            assertLazyLoad(name, path, format);
+        }
+
+        // The installer has no parameters, so check a file that does
+        Path tiny = temp.resolve("lazy_params.tiny");
+        Files.copy(getStream("./tiny_v2.tiny"), tiny);
+        assertLazyLoad("lazy_params.tiny", tiny, Format.TINY);
+    }
+
+    private void assertLazyLoad(String name, Path path, Format format) throws IOException {
+        IMappingFile eager = IMappingFile.load(path);
+        IMappingFile lazy = IMappingFile.load(path, LoadOptions.lazy());
+        assertSameClasses(name, eager, lazy);
+        assertNull(lazy.getClass("does/not/Exist"));
+        assertWritesMatch(name, eager, lazy, false, format);
+
+        // Reversed before any class has been read
+        IMappingFile reversed = IMappingFile.load(path, LoadOptions.lazy()).reverse();
+        assertSameClasses("reversed " + name, eager.reverse(), reversed);
+        assertWritesMatch("reversed_" + name, eager.reverse(), reversed, false, format);
+    }
+
+    private void assertSameClasses(String name, IMappingFile expected, IMappingFile actual) {
+        for (IClass cls : expected.getClasses()) {
+            IClass other = actual.getClass(cls.getOriginal());
+            assertNotNull(other, "Missing " + cls.getOriginal() + " in " + name);
+            assertEquals(cls.getMapped(), other.getMapped());
+
+            assertEquals(cls.getFields().size(), other.getFields().size(), "Wrong field count for " + cls.getOriginal() + " in " + name);
+            for (IField fld : cls.getFields()) {
+                IField otherFld = other.getField(fld.getOriginal());
+                assertNotNull(otherFld, "Missing " + cls.getOriginal() + '.' + fld.getOriginal() + " in " + name);
+                assertEquals(fld.getMapped(), otherFld.getMapped());
+                assertEquals(fld.getDescriptor(), otherFld.getDescriptor());
+            }
+
+            assertEquals(cls.getMethods().size(), other.getMethods().size(), "Wrong method count for " + cls.getOriginal() + " in " + name);
+            for (IMethod mtd : cls.getMethods()) {
+                IMethod otherMtd = other.getMethod(mtd.getOriginal(), mtd.getDescriptor());
+                assertNotNull(otherMtd, "Missing " + cls.getOriginal() + '.' + mtd.getOriginal() + mtd.getDescriptor() + " in " + name);
+                assertEquals(mtd.getMapped(), otherMtd.getMapped());
+                assertEquals(mtd.getMappedDescriptor(), otherMtd.getMappedDescriptor());
+
+                assertEquals(mtd.getParameters().size(), otherMtd.getParameters().size());
+                for (IParameter par : mtd.getParameters()) {
+                    IParameter otherPar = otherMtd.getParameter(par.getIndex());
+                    assertNotNull(otherPar, "Missing parameter " + par.getIndex() + " of " + cls.getOriginal() + '.' + mtd.getOriginal() + " in " + name);
+                    assertEquals(par.getOriginal(), otherPar.getOriginal());
+                    assertEquals(par.getMapped(), otherPar.getMapped());
+                }
+            }
+        }
+        assertEquals(expected.getClasses().size(), actual.getClasses().size(), "Wrong class count in " + name);
+    }
+
+    @Test
+    void remapDescriptor() throws IOException {
+        IMappingBuilder builder = IMappingBuilder.create("left", "right");
+        builder.addClass("a", "net/Outer")
+            .method("(La;)V", "m1", "method1").build()
+            .method("(La;)V", "m2", "method2");
+        builder.addClass("b", "b");
+        IMappingFile map = builder.build().getMap("left", "right");
+
+        assertEquals("(Lnet/Outer;[[Lnet/Outer$c;ILb;)Lnet/Outer;", map.remapDescriptor("(La;[[La$c;ILb;)La;"));
+        assertEquals("(IL)V", map.remapDescriptor("(IL)V"));
+        String unmapped = "(Ljava/lang/String;Lb;[J)V";
+        assertSame(unmapped, map.remapDescriptor(unmapped), "Unmapped descriptors should not be copied");
+
+        IClass cls = map.getClass("a");
+        assertEquals("(Lnet/Outer;)V", cls.getMethod("m1", "(La;)V").getMappedDescriptor());
+        assertSame(cls.getMethod("m1", "(La;)V").getMappedDescriptor(), cls.getMethod("m2", "(La;)V").getMappedDescriptor(), "Mapped descriptors should be shared");
+    }
+
+    @Test
+    void remapCache() throws IOException {
+        IMappingBuilder builder = IMappingBuilder.create("left", "right");
+        builder.addClass("a", "net/A");
+        IMappingFile map = builder.build().getMap("left", "right");
+        assertEquals(65536, map.getRemapCacheStats().getCapacity(), "Caches should be bounded by default");
+        map.setRemapCacheSize(4);
+
+        for (int x = 0; x < 100; x++) {
+            assertEquals("net/A", map.remapClass("a"));
+            assertEquals("java/lang/Object" + x, map.remapClass("java/lang/Object" + x));
+        }
+
+        CacheStats stats = map.getRemapCacheStats();
+        assertEquals(4, stats.getCapacity());
+        assertTrue(stats.getSize() <= 4, "Cache grew past its limit: " + stats);
+        assertTrue(stats.getEvictions() > 0, "Nothing was evicted: " + stats);
+        assertTrue(stats.getHits() > 0, "Recently used class was evicted: " + stats);
+        assertEquals(200, stats.getHits() + stats.getMisses());
+
+        map.setRemapCacheSize(0);
+        assertEquals(0, map.getRemapCacheStats().getCapacity());
+    }
+
+    @Test
+    void writeStreams() throws IOException {
+        IMappingFile pg = IMappingFile.load(getStream("./installer.pg"));
+        for (Format format : Format.values()) {
+            Path path = temp.resolve("stream." + format.name().toLowerCase(Locale.ENGLISH));
+            pg.write(path, format, true);
+            byte[] expected = Files.readAllBytes(path);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            pg.write(bytes, format, true);
+            assertArrayEquals(expected, bytes.toByteArray(), "OutputStream did not match for " + format);
+
+            if (format == Format.BINARY) {
+                assertThrows(IllegalArgumentException.class, () -> pg.write(new StringBuilder(), format, true));
+                continue;
+            }
+
+            StringBuilder text = new StringBuilder();
+            pg.write(text, format, true);
+            assertEquals(new String(expected, StandardCharsets.UTF_8), text.toString(), "Appendable did not match for " + format);
+        }
+    }
+
+    @Test
+    void parallelWrite() throws IOException {
+        IMappingFile pg = IMappingFile.load(getStream("./installer.pg"));
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (Format format : Format.values()) {
+                for (boolean reversed : new boolean[] { false, true }) {
+                    String name = "parallel_write." + format.name().toLowerCase(Locale.ENGLISH) + (reversed ? ".reversed" : "");
+                    assertWritesMatch(name, path -> pg.write(path, format, reversed), path -> pg.write(path, format, reversed, WriteOptions.parallel(pool)));
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void writeTargets() throws IOException {
+        IMappingFile pg = IMappingFile.load(getStream("./installer.pg"));
+        List<WriteTarget> targets = new ArrayList<>();
+        for (Format format : Format.values()) {
+            for (boolean reversed : new boolean[] { false, true }) {
+                String name = "targets." + format.name().toLowerCase(Locale.ENGLISH) + (reversed ? ".reversed" : "");
+                pg.write(temp.resolve("single_" + name), format, reversed);
+                targets.add(WriteTarget.of(temp.resolve(name), format, reversed));
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            pg.write(targets, WriteOptions.parallel(pool));
+        } finally {
+            pool.shutdown();
+        }
+
+        for (WriteTarget target : targets) {
+            Path single = target.getPath().resolveSibling("single_" + target.getPath().getFileName());
+            assertArrayEquals(Files.readAllBytes(single), Files.readAllBytes(target.getPath()), "Fan out write did not match for " + target);
+        }
+    }
+
+    @Test
+    void binaryRoundTrip() throws IOException {
+        for (String file : new String[] { "./tiny_v2_named.tiny", "./installer.pg" }) {
+            INamedMappingFile map = INamedMappingFile.load(getStream(file));
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            map.write(bytes, Format.BINARY);
+
+            INamedMappingFile binary = INamedMappingFile.load(new ByteArrayInputStream(bytes.toByteArray()));
+            assertEquals(map.getNames(), binary.getNames());
+            assertWritesMatch("binary_" + file.substring(2), map, binary, Format.TINY1, Format.TSRG2);
+
+            // Tiny v2 has the comments, but only two columns
+            String from = map.getNames().get(0);
+            String to = map.getNames().get(1);
+            assertWritesMatch("binary_map_" + file.substring(2), map.getMap(from, to), binary.getMap(from, to), false, Format.TINY);
+        }
+
+        INamedMappingFile map = INamedMappingFile.load(getStream("./tiny_v2_named.tiny"));
+        Path path = temp.resolve("binary_reordered.bin.gz");
+        map.write(path, Format.BINARY, "C", "A");
+        INamedMappingFile reordered = INamedMappingFile.load(path);
+        assertEquals(Arrays.asList("C", "A"), reordered.getNames());
+        assertWritesMatch("binary_reordered.tsrg", out -> map.write(out, Format.TSRG2, "C", "A"), out -> reordered.write(out, Format.TSRG2));
+    }
+
+    @Test
+    void binaryNegativeParameters() throws IOException {
+        IMappingBuilder builder = IMappingBuilder.create("left", "right");
+        IMappingBuilder.IMethod mtd = builder.addClass("a", "b").method("()V", "m", "n");
+        mtd.parameter(-1, "p", "q");
+        mtd.parameter(Integer.MIN_VALUE, "min", "lowest");
+        mtd.parameter(Integer.MAX_VALUE, "max", "highest");
+        mtd.parameter(3, "r", "s");
+        INamedMappingFile map = builder.build();
+        Path path = temp.resolve("negative.bin");
+        map.write(path, Format.BINARY);
+
+        for (LoadOptions options : new LoadOptions[] { LoadOptions.defaults(), LoadOptions.lazy() }) {
+            IMethod loaded = IMappingFile.load(path, options).getClass("a").getMethod("m", "()V");
+            assertEquals("q", loaded.remapParameter(-1, "p"));
+            assertEquals("lowest", loaded.remapParameter(Integer.MIN_VALUE, "min"));
+            assertEquals("highest", loaded.remapParameter(Integer.MAX_VALUE, "max"));
+            assertEquals("s", loaded.remapParameter(3, "r"));
+            assertEquals(4, loaded.getParameters().size());
+        }
+    }
+
+    @Test
+    void binaryIndex() throws IOException {
+        IMappingFile pg = IMappingFile.load(getStream("./installer.pg"));
+        for (String name : new String[] { "index.bin", "index.bin.gz" }) {
+            Path path = temp.resolve(name);
+            pg.write(path, Format.BINARY, false);
+
+            IMappingFile lazy = IMappingFile.load(path, LoadOptions.lazy());
+            for (IClass expected : pg.getClasses()) {
+                IClass actual = lazy.getClass(expected.getOriginal());
+                assertNotNull(actual, "Indexed load is missing " + expected.getOriginal() + " from " + name);
+                assertEquals(expected.getMapped(), actual.getMapped());
+                assertEquals(expected.getMapped(), lazy.remapClass(expected.getOriginal()));
+                for (IMappingFile.IField fld : expected.getFields())
+                    assertEquals(fld.getMapped(), actual.remapField(fld.getOriginal()));
+                for (IMappingFile.IMethod mtd : expected.getMethods()) {
+                    assertEquals(mtd.getMapped(), actual.remapMethod(mtd.getOriginal(), mtd.getDescriptor()));
+                    assertEquals(mtd.getMappedDescriptor(), lazy.remapDescriptor(mtd.getDescriptor()));
+                }
+            }
+            assertNull(lazy.getClass("does/not/Exist"));
+            assertEquals("does/not/Exist", lazy.remapClass("does/not/Exist"));
+            assertWritesMatch(name, pg, lazy, false, Format.TSRG2);
+        }
+    }
+
+    @Test
+    void compactLoad() throws IOException {
+        for (String file : new String[] { "./tiny_v2_named.tiny", "./installer.pg" }) {
+            INamedMappingFile expected = INamedMappingFile.load(getStream(file));
+            INamedMappingFile compact = INamedMappingFile.load(getStream(file), LoadOptions.compact());
+            assertEquals(expected.getNames(), compact.getNames());
+            assertWritesMatch("compact_" + file.substring(2), expected, compact, Format.TINY1, Format.TSRG2);
+
+            String from = expected.getNames().get(0);
+            String to = expected.getNames().get(expected.getNames().size() - 1);
+            assertWritesMatch("compact_map_" + file.substring(2), expected.getMap(from, to), compact.getMap(from, to), false, Format.TINY);
+
+            IMappingFile map = compact.getMap(from, to);
+            String original = map.getClasses().iterator().next().getOriginal();
+            assertSame(map.getClass(original).getMapped(), map.getClass(original).getMapped(), "Recently decoded names should be reused");
+        }
+    }
+
+    @Test
+    void metadata() throws IOException {
+        IMappingBuilder builder = IMappingBuilder.create("left", "right");
+        IMappingBuilder.IClass cls = builder.addClass("a", "net/Outer").meta("comment", "first").meta("start_line", "1").meta("comment", "second");
+        cls.field("f", "field");
+        IMappingFile map = builder.build().getMap("left", "right");
+
+        IClass outer = map.getClass("a");
+        assertEquals(Arrays.asList("comment", "start_line"), new ArrayList<>(outer.getMetadata().keySet()));
+        assertEquals("second", outer.getMetadata().get("comment"));
+        assertTrue(outer.getField("f").getMetadata().isEmpty());
+        assertThrows(UnsupportedOperationException.class, () -> outer.getMetadata().put("comment", "third"));
+    }
+
+    @Test
+    void methodOverloads() throws IOException {
+        IMappingBuilder builder = IMappingBuilder.create("left", "right");
+        IMappingBuilder.IClass cls = builder.addClass("a", "net/Outer");
+        cls.method("()V", "m", "run");
+        cls.method("(I)V", "m", "runInt");
+        cls.method("()I", "m", "count");
+        cls.method("(I)V", "m", "runIndex");
+        IMappingFile map = builder.build().getMap("left", "right");
+
+        IClass outer = map.getClass("a");
+        assertEquals(3, outer.getMethods().size());
+        assertEquals("run", outer.remapMethod("m", "()V"));
+        assertEquals("runIndex", outer.remapMethod("m", "(I)V"));
+        assertEquals("count", outer.getMethod("m", "()I").getMapped());
+        assertEquals("m", outer.remapMethod("m", "(J)V"));
+        assertNull(outer.getMethod("m()", "V"));
+        List<String> order = new ArrayList<>();
+        outer.getMethods().forEach(mtd -> order.add(mtd.getMapped()));
+        assertEquals(Arrays.asList("run", "runIndex", "count"), order);
+
+        // Overloads are written by name then descriptor, whatever order they were added in
+        IMappingBuilder shuffled = IMappingBuilder.create("left", "right");
+        IMappingBuilder.IClass other = shuffled.addClass("a", "net/Outer");
+        other.method("(I)V", "m", "runIndex");
+        other.method("()I", "m", "count");
+        other.method("()V", "m", "run");
+        IMappingFile shuffledMap = shuffled.build().getMap("left", "right");
+        List<String> expected = Arrays.asList("a net/Outer", "\tm ()I count", "\tm ()V run", "\tm (I)V runIndex");
+        assertLinesMatch(expected, write("overloads.tsrg", map, Format.TSRG, false));
+        assertLinesMatch(expected, write("shuffled_overloads.tsrg", shuffledMap, Format.TSRG, false));
+        assertLinesMatch(expected, write("named_overloads.tsrg", shuffled.build(), Format.TSRG));
+    }
+
+    @Test
+    void parameterOrder() throws IOException {
+        IMappingBuilder builder = IMappingBuilder.create("left", "right");
+        IMappingBuilder.IMethod mtd = builder.addClass("a", "net/Outer").method("(IJI)V", "m", "run");
+        mtd.parameter(4, "p4", "last");
+        mtd.parameter(1, "p1", "first");
+        mtd.parameter(3, "p3", "middle");
+        mtd.parameter(1, "p1", "replaced");
+        IMappingFile map = builder.build().getMap("left", "right");
+
+        IMethod run = map.getClass("a").getMethod("m", "(IJI)V");
+        List<Integer> order = new ArrayList<>();
+        run.getParameters().forEach(par -> order.add(par.getIndex()));
+        assertEquals(Arrays.asList(1, 3, 4), order);
+        assertEquals("replaced", run.remapParameter(1, "p1"));
+        assertEquals("p2", run.remapParameter(2, "p2"));
+        assertNull(run.getParameter(0));
+        assertEquals("last", run.getParameter(4).getMapped());
+    }
+
+    @Test
+    void mapViews() throws IOException {
+        IMappingBuilder builder = IMappingBuilder.create("obf", "srg", "mcp");
+        builder.addPackage("a", "net/minecraft", "net/minecraft");
+        IMappingBuilder.IClass cls = builder.addClass("a", "net/minecraft/C_1_", "net/minecraft/World");
+        cls.field("f", "f_1_", "level").descriptor("La;");
+        cls.method("(La;)V", "m", "m_1_", "tick").parameter(1, "p", "p_1_", "world").meta("comment", "The world");
+        INamedMappingFile named = builder.build();
+
+        IMappingFile map = named.getMap("srg", "mcp");
+        assertSame(map, named.getMap("srg", "mcp"));
+        assertEquals("net/minecraft", map.remapPackage("net/minecraft"));
+        assertEquals("net/minecraft/World", map.remapClass("net/minecraft/C_1_"));
+        assertNull(map.getClass("a"));
+
+        IClass world = map.getClass("net/minecraft/C_1_");
+        assertEquals(1, map.getClasses().size());
+        assertEquals("level", world.remapField("f_1_"));
+        assertEquals("Lnet/minecraft/C_1_;", world.getField("f_1_").getDescriptor());
+        assertEquals("Lnet/minecraft/World;", world.getField("f_1_").getMappedDescriptor());
+        assertEquals("tick", world.remapMethod("m_1_", "(Lnet/minecraft/C_1_;)V"));
+        assertEquals("m", world.remapMethod("m", "(La;)V"));
+
+        IMethod tick = world.getMethod("m_1_", "(Lnet/minecraft/C_1_;)V");
+        assertEquals("world", tick.remapParameter(1, "p_1_"));
+        assertEquals("The world", tick.getParameter(1).getMetadata().get("comment"));
+        assertEquals(1, tick.getParameters().size());
+
+        // Nodes are made on every lookup, but the same node is always equal
+        assertEquals(world, map.getClass("net/minecraft/C_1_"));
+        assertEquals(world.hashCode(), map.getClass("net/minecraft/C_1_").hashCode());
+        assertTrue(map.getClasses().contains(world));
+        assertEquals(world.getField("f_1_"), world.getFields().iterator().next());
+        assertEquals(tick, map.getClass("net/minecraft/C_1_").getMethod("m_1_", "(Lnet/minecraft/C_1_;)V"));
+        assertEquals(tick.getParameter(1), tick.getParameters().iterator().next());
+        assertNotEquals(world, map.reverse().getClass("net/minecraft/World"));
+        assertNotEquals(world, named.getMap("obf", "mcp").getClass("a"));
+    }
+
+    @Test
+    void reverseView() throws IOException {
+        IMappingBuilder builder = IMappingBuilder.create("left", "right");
+        IMappingBuilder.IClass cls = builder.addClass("a", "net/World");
+        cls.field("f", "level").descriptor("La;");
+        cls.method("(La;)La;", "m", "tick").parameter(1, "p", "world");
+        IMappingFile map = builder.build().getMap("left", "right");
+
+        IMappingFile reversed = map.reverse();
+        assertSame(map, reversed.reverse());
+        assertEquals("a", reversed.remapClass("net/World"));
+        IClass world = reversed.getClass("net/World");
+        assertEquals("f", world.remapField("level"));
+        assertEquals("Lnet/World;", world.getField("level").getDescriptor());
+        IMethod tick = world.getMethod("tick", "(Lnet/World;)Lnet/World;");
+        assertEquals("m", tick.getMapped());
+        assertEquals("(La;)La;", tick.getMappedDescriptor());
+        assertEquals("p", tick.remapParameter(1, "world"));
+
+        IMappingFile renamed = map.rename(new IRenamer() {
+            @Override
+            public String rename(IClass value) {
+                return "net/Level";
+            }
+        });
+        assertEquals("net/Level", renamed.remapClass("a"));
+        assertEquals("a", renamed.reverse().remapClass("net/Level"));
+        assertSame(renamed, renamed.reverse().reverse());
+    }
+
+    @Test
+    void lookupByMapped() throws IOException {
+        IMappingBuilder builder = IMappingBuilder.create("obf", "srg", "mcp");
+        for (int x = 0; x < 100; x++) {
+            IMappingBuilder.IClass cls = builder.addClass("c" + x, "net/C_" + x + "_", "net/Class" + x);
+            cls.field("f", "f_" + x + "_", "field" + x).descriptor("Lc" + x + ";");
+            cls.method("(Lc" + x + ";)V", "m", "m_" + x + "_", "method" + x);
+        }
+        IMappingFile map = builder.build().getMap("obf", "mcp");
+
+        // Every thread needs the same index, which should only be built once
+        assertTrue(IntStream.range(0, 100).parallel().allMatch(x -> {
+            IClass cls = map.getClassByMapped("net/Class" + x);
+            return cls != null && cls.getOriginal().equals("c" + x)
+                && cls.getFieldByMapped("field" + x).getOriginal().equals("f")
+                && cls.getMethodByMapped("method" + x, "(Lnet/Class" + x + ";)V").getDescriptor().equals("(Lc" + x + ";)V");
+        }));
+
+        assertNull(map.getClassByMapped("c1"));
+        assertNull(map.getClassByMapped("net/C_1_"));
+        assertNull(map.getClassByMapped("net/Class1").getMethodByMapped("method1", "(Lc1;)V"));
+        assertEquals("c1", map.reverse().remapClass("net/Class1"));
+    }
+
+    @Test
+    void packageMoves() throws IOException {
+        IMappingBuilder builder = IMappingBuilder.create("left", "right");
+        builder.addPackage("", "net/minecraft/src");
+        builder.addPackage("com/old", "org/moved");
+        builder.addPackage("a", "pkg/a");
+        builder.addClass("a", "net/Outer");
+        builder.addClass("a$b", "net/Outer$Inner");
+        builder.addClass("com/old/Kept", "com/old/Kept");
+        IMappingFile map = builder.build().getMap("left", "right");
+
+        assertEquals("Loose", map.remapClass("Loose"));
+        assertEquals("org/moved/Thing", map.remapClass("com/old/Thing"));
+        assertEquals("org/moved/sub/Thing$1", map.remapClass("com/old/sub/Thing$1"));
+        assertEquals("com/old/Kept$Inner", map.remapClass("com/old/Kept$Inner"));
+        assertEquals("com/oldest/Thing", map.remapClass("com/oldest/Thing"));
+        assertEquals("org/moved/sub", map.remapPackage("com/old/sub"));
+        assertEquals("com/oldest", map.remapPackage("com/oldest"));
+
+        assertEquals("net/Outer", map.remapClass("a"));
+        assertEquals("net/Outer$1", map.remapClass("a$1"));
+        assertEquals("net/Outer$Inner$c$2", map.remapClass("a$b$c$2"));
+        assertEquals("pkg/a/Thing", map.remapClass("a/Thing"));
+        assertEquals("ab", map.remapClass("ab"));
+        assertEquals("(Lorg/moved/Thing;Lnet/Outer$Inner$1;)V", map.remapDescriptor("(Lcom/old/Thing;La$b$1;)V"));
+        assertEquals("com/old/Thing", map.reverse().remapClass("org/moved/Thing"));
+    }
+
+    @Test
+    void batchRemap() throws IOException {
+        IMappingBuilder builder = IMappingBuilder.create("left", "right");
+        builder.addPackage("com/old", "org/moved");
+        builder.addClass("a", "net/Outer");
+        builder.addClass("b", "net/Other");
+        IMappingFile map = builder.build().getMap("left", "right");
+
+        String[] in = IntStream.range(0, 20000).mapToObj(x -> x % 3 == 0 ? "a$" + (x % 7) : x % 3 == 1 ? "com/old/C" + (x % 50) : "b").toArray(String[]::new);
+        String[] expected = Arrays.stream(in).map(map::remapClass).toArray(String[]::new);
+        String[] out = new String[in.length];
+        map.remapClasses(in, out);
+        assertArrayEquals(expected, out);
+        map.remapClasses(in, in, ForkJoinPool.commonPool());
+        assertArrayEquals(expected, in);
+        assertThrows(IllegalArgumentException.class, () -> map.remapClasses(out, new String[1]));
+
+        List<String> descs = IntStream.range(0, 20000).mapToObj(x -> "(La$" + (x % 5) + ";I[Lcom/old/C" + (x % 30) + ";)Lb;").collect(Collectors.toList());
+        List<String> mapped = map.remapDescriptors(descs, ForkJoinPool.commonPool());
+        assertEquals("(Lnet/Outer$1;I[Lorg/moved/C1;)Lnet/Other;", mapped.get(1));
+        for (int x = 0; x < descs.size(); x++)
+            assertEquals(map.remapDescriptor(descs.get(x)), mapped.get(x));
+        assertEquals(mapped, map.remapDescriptors(descs));
+    }
+
+    @Test
+    void interfaceDefaults() throws IOException {
+        IMappingBuilder builder = IMappingBuilder.create("left", "right");
+        IMappingBuilder.IClass cls = builder.addClass("a", "net/Outer");
+        cls.field("f", "field").descriptor("La;");
+        cls.method("(La;)V", "m", "run").parameter(1, "p", "world");
+        INamedMappingFile named = builder.build();
+        IMappingFile map = named.getMap("left", "right");
+
+        // Implements only what the interfaces had before, and the stream writes which have no fallback. Everything else added since should fall back to them
+        IMappingFile external = new IMappingFile() {
+            @Override public Collection<? extends IPackage> getPackages() { return map.getPackages(); }
+            @Override public IPackage getPackage(String original) { return map.getPackage(original); }
+            @Override public Collection<? extends IClass> getClasses() { return map.getClasses(); }
+            @Override public IClass getClass(String original) { return map.getClass(original); }
+            @Override public String remapPackage(String pkg) { return map.remapPackage(pkg); }
+            @Override public String remapClass(String desc) { return map.remapClass(desc); }
+            @Override public String remapDescriptor(String desc) { return map.remapDescriptor(desc); }
+            @Override public void write(Path path, Format format, boolean reversed) throws IOException { map.write(path, format, reversed); }
+            @Override public void write(OutputStream out, Format format, boolean reversed) throws IOException { map.write(out, format, reversed); }
+            @Override public void write(Appendable out, Format format, boolean reversed) throws IOException { map.write(out, format, reversed); }
+            @Override public IMappingFile reverse() { return map.reverse(); }
+            @Override public IMappingFile rename(IRenamer renamer) { return map.rename(renamer); }
+            @Override public IMappingFile chain(IMappingFile other) { return map.chain(other); }
+            @Override public IMappingFile merge(IMappingFile other) { return map.merge(other); }
+        };
+
+        assertEquals("a", external.getClassByMapped("net/Outer").getOriginal());
+        assertNull(external.getClassByMapped("a"));
+        assertEquals("f", external.getClass("a").getFieldByMapped("field").getOriginal());
+        assertEquals("m", external.getClass("a").getMethodByMapped("run", "(Lnet/Outer;)V").getOriginal());
+        assertNull(external.getClass("a").getMethodByMapped("run", "(La;)V"));
+
+        String[] classes = { "a", "a$1", "b" };
+        String[] remapped = new String[3];
+        external.remapClasses(classes, remapped, ForkJoinPool.commonPool());
+        assertArrayEquals(new String[] { "net/Outer", "net/Outer$1", "b" }, remapped);
+        assertEquals(Arrays.asList("(Lnet/Outer;)V", "I"), external.remapDescriptors(Arrays.asList("(La;)V", "I")));
+        external.setRemapCacheSize(10);
+        assertEquals(0, external.getRemapCacheStats().getSize());
+
+        Path target = temp.resolve("defaults/targets.tsrg");
+        external.write(Collections.singletonList(WriteTarget.of(target, Format.TSRG, false)), WriteOptions.defaults());
+        ByteArrayOutputStream tsrg = new ByteArrayOutputStream();
+        map.write(tsrg, Format.TSRG, false);
+        assertArrayEquals(tsrg.toByteArray(), Files.readAllBytes(target));
+
+        INamedMappingFile externalNamed = new INamedMappingFile() {
+            @Override public List<String> getNames() { return named.getNames(); }
+            @Override public IMappingFile getMap(String from, String to) { return named.getMap(from, to); }
+            @Override public void write(Path path, Format format, String... order) throws IOException { named.write(path, format, order); }
+            @Override public void write(OutputStream out, Format format, String... order) throws IOException { named.write(out, format, order); }
+            @Override public void write(Appendable out, Format format, String... order) throws IOException { named.write(out, format, order); }
+        };
+        Path options = temp.resolve("defaults/options.tiny");
+        externalNamed.write(options, Format.TINY, WriteOptions.defaults(), "right", "left");
+        StringBuilder expected = new StringBuilder();
+        named.write(expected, Format.TINY, "right", "left");
+        assertEquals(expected.toString(), new String(Files.readAllBytes(options), StandardCharsets.UTF_8));
+        assertEquals(0, externalNamed.getRemapCacheStats().getCapacity());
+    }
+
     @Test
     void testCompression() throws IOException {
         final String compressable = "easilyCompressableAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";